@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser.apt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * Generates plain Java {@link org.gridkit.nanoparser.SematicActionSource} for each
+ * {@link org.gridkit.nanoparser.ReflectionActionSource} subclass declaring annotated
+ * action methods. For <code>MyParser</code> (or <code>Outer.MyParser</code>)
+ * class <code>MyParserActionSource</code> (or <code>Outer_MyParserActionSource</code>)
+ * is generated in same package, its constructor takes instance of <code>MyParser</code>
+ * and actions call methods of that instance directly.
+ * <br/>
+ * Method signatures are validated using same rules as reflection based source.
+ * Methods using single primitive type for result and operands (e.g. <code>int plus(int, int)</code>)
+ * are generated as primitive handlers, so compiled expressions do not box intermediate values.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+@SupportedAnnotationTypes({
+    ActionSourceProcessor.TERM,
+    ActionSourceProcessor.UNARY,
+    ActionSourceProcessor.BINARY,
+    ActionSourceProcessor.CONVERTION})
+public class ActionSourceProcessor extends AbstractProcessor {
+
+    static final String HOST = "org.gridkit.nanoparser.ReflectionActionSource";
+    static final String TERM = HOST + ".Term";
+    static final String UNARY = HOST + ".Unary";
+    static final String BINARY = HOST + ".Binary";
+    static final String CONVERTION = HOST + ".Convertion";
+    static final String CONVERTIBLE = HOST + ".Convertible";
+    static final String CONTEXT = HOST + ".Context";
+    static final String SOURCE = HOST + ".Source";
+
+    static final String TOKEN = "org.gridkit.nanoparser.Token";
+
+    static final String SUFFIX = "ActionSource";
+
+    private enum ActionKind {
+        TERM,
+        CONVERSION,
+        UNARY,
+        BINARY,
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> hosts = new LinkedHashSet<TypeElement>();
+        for(TypeElement a: annotations) {
+            for(Element e: roundEnv.getElementsAnnotatedWith(a)) {
+                hosts.add((TypeElement) e.getEnclosingElement());
+            }
+        }
+        for(TypeElement host: hosts) {
+            try {
+                String source = generate(host);
+                if (source != null) {
+                    Writer w = processingEnv.getFiler().createSourceFile(generatedName(host), host).openWriter();
+                    try {
+                        w.write(source);
+                    }
+                    finally {
+                        w.close();
+                    }
+                }
+            }
+            catch(IOException e) {
+                error(host, "Failed to write action source: " + e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return source of generated class or <code>null</code> if host has errors
+     */
+    String generate(TypeElement host) {
+        if (!host.getTypeParameters().isEmpty()) {
+            error(host, "Generic action source classes are not supported");
+            return null;
+        }
+        for(Element e = host; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                error(host, "Action source class should not be private");
+                return null;
+            }
+        }
+        TypeMirror ctx = contextType(host);
+        if (ctx == null) {
+            error(host, "Action source class should extend ReflectionActionSource");
+            return null;
+        }
+
+        String hostName = host.getQualifiedName().toString();
+        String ctxName = ctx.toString();
+        String simpleName = generatedSimpleName(host);
+        String pkg = packageOf(host);
+
+        StringBuilder body = new StringBuilder();
+        boolean valid = true;
+        for(Element e: processingEnv.getElementUtils().getAllMembers(host)) {
+            if (e.getKind() != ElementKind.METHOD || !e.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            ExecutableElement m = (ExecutableElement) e;
+            AnnotationMirror a;
+            if ((a = annotation(m, TERM)) != null) {
+                valid &= generateAction(body, host, m, ActionKind.TERM, stringValue(a), ctxName);
+            }
+            if (annotation(m, CONVERTION) != null) {
+                valid &= generateAction(body, host, m, ActionKind.CONVERSION, "", ctxName);
+            }
+            if ((a = annotation(m, UNARY)) != null) {
+                valid &= generateAction(body, host, m, ActionKind.UNARY, stringValue(a), ctxName);
+            }
+            if ((a = annotation(m, BINARY)) != null) {
+                valid &= generateAction(body, host, m, ActionKind.BINARY, stringValue(a), ctxName);
+            }
+        }
+        if (!valid) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (pkg.length() > 0) {
+            sb.append("package ").append(pkg).append(";\n\n");
+        }
+        sb.append("import org.gridkit.nanoparser.GeneratedActionSource;\n");
+        sb.append("import org.gridkit.nanoparser.Token;\n");
+        sb.append("import org.gridkit.nanoparser.Tokens;\n\n");
+        sb.append("/**\n");
+        sb.append(" * Generated by nanoparser-apt from {@link ").append(hostName).append("}, do not edit.\n");
+        sb.append(" */\n");
+        sb.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        sb.append("public class ").append(simpleName).append(" extends GeneratedActionSource<").append(ctxName).append("> {\n\n");
+        sb.append("    public ").append(simpleName).append("(final ").append(hostName).append(" target) {\n");
+        sb.append(body);
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private boolean generateAction(StringBuilder sb, TypeElement host, ExecutableElement m, ActionKind kind, String id, String ctxName) {
+        String name = m.getSimpleName().toString();
+        List<? extends VariableElement> params = m.getParameters();
+
+        int tokenCount = 0;
+        for(VariableElement p: params) {
+            if (annotation(p, SOURCE) != null && annotation(p, CONTEXT) == null) {
+                ++tokenCount;
+            }
+        }
+
+        boolean hasContext = false;
+        boolean hasBody = false;
+        int tokenN = 0;
+        List<TypeMirror> operands = new ArrayList<TypeMirror>();
+        List<String> convertibles = new ArrayList<String>();
+        List<String> args = new ArrayList<String>();
+        List<Integer> operandArgs = new ArrayList<Integer>();
+        for(VariableElement p: params) {
+            TypeMirror pt = p.asType();
+            boolean isContext = annotation(p, CONTEXT) != null;
+            boolean isSource = annotation(p, SOURCE) != null;
+            AnnotationMirror convertible = annotation(p, CONVERTIBLE);
+            if (convertible != null && (kind == ActionKind.TERM || kind == ActionKind.CONVERSION)) {
+                return error(m, (kind == ActionKind.TERM ? "Term" : "Conversion") + " method '" + name + "' may not be annotated with @Convertible");
+            }
+            if (isContext) {
+                if (hasContext) {
+                    return error(m, "Method '" + name + "' only one argument can be annotated with @Context");
+                }
+                if (isSource) {
+                    return error(m, "Method '" + name + "' may not be annotated with @Context and @Source");
+                }
+                if (convertible != null) {
+                    return error(m, "Method '" + name + "' may not be annotated with @Context and @Convertible");
+                }
+                hasContext = true;
+                args.add("(" + erasure(pt) + ") parserContext");
+            }
+            else if (isSource) {
+                if (!isType(pt, TOKEN)) {
+                    return error(m, "Method '" + name + "' argument annotated with @Source should have type Token");
+                }
+                if (convertible != null) {
+                    return error(m, "Method '" + name + "' may not be annotated with @Source and @Convertible");
+                }
+                args.add("token(token, " + (tokenN++) + ", " + tokenCount + ")");
+            }
+            else if (kind == ActionKind.TERM) {
+                if (hasBody) {
+                    return error(m, "Method '" + name + "' should have zero or one unannotated argument");
+                }
+                hasBody = true;
+                if (isType(pt, "java.lang.String")) {
+                    args.add("token.tokenBody()");
+                }
+                else if (isType(pt, "java.lang.CharSequence")) {
+                    args.add("Tokens.bodySequence(token)");
+                }
+                else {
+                    return error(m, "Method '" + name + "' term input arg should be of type String or CharSequence");
+                }
+            }
+            else {
+                int limit = kind == ActionKind.BINARY ? 2 : 1;
+                if (operands.size() == limit) {
+                    return error(m, "Method '" + name + "' - @" + kindName(kind) + " method should have " + (limit == 1 ? "one input argument" : "two input arguments"));
+                }
+                if (pt.getKind().isPrimitive() && boxed(pt) == null) {
+                    return error(m, "Method '" + name + "' - @" + kindName(kind) + " method input arguments should be of reference type or int/long/double/boolean");
+                }
+                String var = kind != ActionKind.BINARY ? "arg" : operands.isEmpty() ? "left" : "right";
+                operandArgs.add(args.size());
+                args.add("(" + castType(pt) + ") " + var);
+                operands.add(pt);
+                convertibles.add(convertibleTypes(pt, convertible));
+            }
+        }
+        int expected = kind == ActionKind.TERM ? 0 : kind == ActionKind.BINARY ? 2 : 1;
+        if (operands.size() != expected) {
+            return error(m, "Method '" + name + "' - @" + kindName(kind) + " method should have " + (expected == 1 ? "one input argument" : "two input arguments"));
+        }
+        TypeMirror rt = m.getReturnType();
+        if ((kind == ActionKind.UNARY || kind == ActionKind.CONVERSION) && rt.getKind() != TypeKind.DECLARED && rt.getKind() != TypeKind.ARRAY && boxed(rt) == null) {
+            return error(m, "@" + kindName(kind) + " method '" + name + "' should have reference or int/long/double/boolean return type");
+        }
+        if (rt.getKind().isPrimitive() && boxed(rt) == null) {
+            return error(m, "Method '" + name + "' should have reference or int/long/double/boolean return type");
+        }
+
+        String reference = host.getSimpleName() + "." + name + "(" + signature(m) + ")";
+        String returnType = classLiteral(rt);
+        String target = m.getModifiers().contains(Modifier.STATIC) ? host.getQualifiedName().toString() : "target";
+
+        String flavor = primitiveFlavor(kind, rt, operands);
+        // primitive handlers take and return unboxed values
+        String valueType = flavor != null ? rt.toString() : "Object";
+        sb.append("        ");
+        if (flavor != null) {
+            for(int i = 0; i != operandArgs.size(); ++i) {
+                args.set(operandArgs.get(i), kind != ActionKind.BINARY ? "arg" : i == 0 ? "left" : "right");
+            }
+            switch(kind) {
+            case TERM:
+                sb.append("addTerm(new ").append(flavor).append("TermMethod(").append(quote(id)).append(", ").append(quote(reference)).append(") {\n");
+                break;
+            case UNARY:
+                sb.append("addUnary(new ").append(flavor).append("UnaryMethod(").append(quote(id)).append(", ")
+                    .append(convertibles.get(0)).append(", ").append(quote(reference)).append(") {\n");
+                break;
+            default:
+                sb.append("addBinary(new ").append(flavor).append("BinaryMethod(").append(quote(id)).append(", ")
+                    .append(convertibles.get(0)).append(", ").append(convertibles.get(1)).append(", ").append(quote(reference)).append(") {\n");
+            }
+        }
+        else {
+            switch(kind) {
+            case TERM:
+                sb.append("addTerm(new TermMethod(").append(quote(id)).append(", ").append(returnType).append(", ").append(quote(reference)).append(") {\n");
+                break;
+            case CONVERSION:
+                sb.append("addConverter(new UnaryMethod(").append(quote(id)).append(", ").append(returnType).append(", ")
+                    .append(classLiteral(operands.get(0))).append(", ").append(convertibles.get(0)).append(", ").append(quote(reference)).append(") {\n");
+                break;
+            case UNARY:
+                sb.append("addUnary(new UnaryMethod(").append(quote(id)).append(", ").append(returnType).append(", ")
+                    .append(classLiteral(operands.get(0))).append(", ").append(convertibles.get(0)).append(", ").append(quote(reference)).append(") {\n");
+                break;
+            case BINARY:
+                sb.append("addBinary(new BinaryMethod(").append(quote(id)).append(", ").append(returnType).append(", ")
+                    .append(classLiteral(operands.get(0))).append(", ").append(classLiteral(operands.get(1))).append(", ")
+                    .append(convertibles.get(0)).append(", ").append(convertibles.get(1)).append(", ").append(quote(reference)).append(") {\n");
+                break;
+            }
+        }
+        sb.append("            @Override\n");
+        sb.append("            protected ").append(valueType).append(" invoke(").append(ctxName).append(" parserContext, Token token");
+        switch(kind) {
+        case TERM:
+            break;
+        case BINARY:
+            sb.append(", ").append(valueType).append(" left, ").append(valueType).append(" right");
+            break;
+        default:
+            sb.append(", ").append(valueType).append(" arg");
+        }
+        sb.append(") throws Throwable {\n");
+        StringBuilder call = new StringBuilder();
+        call.append(target).append('.').append(name).append('(');
+        for(int i = 0; i != args.size(); ++i) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            call.append(args.get(i));
+        }
+        call.append(')');
+        if (rt.getKind() == TypeKind.VOID) {
+            sb.append("                ").append(call).append(";\n");
+            sb.append("                return null;\n");
+        }
+        else {
+            sb.append("                return ").append(call).append(";\n");
+        }
+        sb.append("            }\n");
+        sb.append("        });\n");
+        return true;
+    }
+
+    /**
+     * Terms, unary and binary operators with signature of single primitive type
+     * are generated as primitive handlers, e.g. <code>IntBinaryMethod</code>.
+     *
+     * @return handler flavor prefix or <code>null</code>
+     */
+    private static String primitiveFlavor(ActionKind kind, TypeMirror rt, List<TypeMirror> operands) {
+        if (kind == ActionKind.CONVERSION || boxed(rt) == null) {
+            return null;
+        }
+        for(TypeMirror ot: operands) {
+            if (ot.getKind() != rt.getKind()) {
+                return null;
+            }
+        }
+        switch(rt.getKind()) {
+        case INT: return "Int";
+        case LONG: return "Long";
+        case DOUBLE: return "Double";
+        default: return "Boolean";
+        }
+    }
+
+    private static String kindName(ActionKind kind) {
+        switch(kind) {
+        case TERM: return "Term";
+        case CONVERSION: return "Conversion";
+        case UNARY: return "Unary";
+        default: return "Binary";
+        }
+    }
+
+    /**
+     * Walks class hierarchy, so type arguments are resolved against host.
+     */
+    private TypeMirror contextType(TypeElement host) {
+        TypeMirror t = host.asType();
+        while(true) {
+            DeclaredType sc = null;
+            for(TypeMirror st: processingEnv.getTypeUtils().directSupertypes(t)) {
+                Element e = processingEnv.getTypeUtils().asElement(st);
+                if (e != null && e.getKind() == ElementKind.CLASS) {
+                    sc = (DeclaredType) st;
+                    break;
+                }
+            }
+            if (sc == null) {
+                return null;
+            }
+            if (((TypeElement) sc.asElement()).getQualifiedName().contentEquals(HOST)) {
+                List<? extends TypeMirror> targs = sc.getTypeArguments();
+                return targs.isEmpty() ? processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType() : targs.get(0);
+            }
+            t = sc;
+        }
+    }
+
+    private String convertibleTypes(TypeMirror pt, AnnotationMirror convertible) {
+        if (convertible == null) {
+            return "types(" + classLiteral(pt) + ")";
+        }
+        List<String> types = new ArrayList<String>();
+        for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e: convertible.getElementValues().entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals("value")) {
+                for(Object v: (List<?>) e.getValue().getValue()) {
+                    types.add(classLiteral((TypeMirror) ((AnnotationValue) v).getValue()));
+                }
+            }
+        }
+        if (types.isEmpty()) {
+            // any type, see ReflectionActionSource
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("types(").append(classLiteral(pt));
+        for(String t: types) {
+            sb.append(", ").append(t);
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    private String signature(ExecutableElement m) {
+        StringBuilder sb = new StringBuilder();
+        for(VariableElement p: m.getParameters()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(simpleName(p.asType()));
+        }
+        return sb.toString();
+    }
+
+    private String simpleName(TypeMirror t) {
+        if (t.getKind() == TypeKind.ARRAY) {
+            return simpleName(((ArrayType) t).getComponentType()) + "[]";
+        }
+        else if (t.getKind() == TypeKind.DECLARED) {
+            return ((DeclaredType) t).asElement().getSimpleName().toString();
+        }
+        else {
+            return processingEnv.getTypeUtils().erasure(t).toString();
+        }
+    }
+
+    private String erasure(TypeMirror t) {
+        return processingEnv.getTypeUtils().erasure(t).toString();
+    }
+
+    private String castType(TypeMirror t) {
+        String b = boxed(t);
+        return b != null ? b : erasure(t);
+    }
+
+    private String classLiteral(TypeMirror t) {
+        return castType(t) + ".class";
+    }
+
+    /**
+     * Primitive types are seen by type inference as their wrappers.
+     */
+    private static String boxed(TypeMirror t) {
+        switch(t.getKind()) {
+        case INT: return "java.lang.Integer";
+        case LONG: return "java.lang.Long";
+        case DOUBLE: return "java.lang.Double";
+        case BOOLEAN: return "java.lang.Boolean";
+        default: return null;
+        }
+    }
+
+    private static boolean isType(TypeMirror t, String name) {
+        return t.getKind() == TypeKind.DECLARED && ((TypeElement) ((DeclaredType) t).asElement()).getQualifiedName().contentEquals(name);
+    }
+
+    private static AnnotationMirror annotation(Element e, String name) {
+        for(AnnotationMirror a: e.getAnnotationMirrors()) {
+            if (((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+    private static String stringValue(AnnotationMirror a) {
+        for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e: a.getElementValues().entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals("value")) {
+                return (String) e.getValue().getValue();
+            }
+        }
+        return "";
+    }
+
+    private static String packageOf(TypeElement type) {
+        Element e = type;
+        while(!(e instanceof PackageElement)) {
+            e = e.getEnclosingElement();
+        }
+        return ((PackageElement) e).getQualifiedName().toString();
+    }
+
+    static String generatedSimpleName(TypeElement type) {
+        StringBuilder sb = new StringBuilder(type.getSimpleName());
+        for(Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            sb.insert(0, '_').insert(0, e.getSimpleName());
+        }
+        return sb.append(SUFFIX).toString();
+    }
+
+    private static String generatedName(TypeElement type) {
+        String pkg = packageOf(type);
+        return pkg.length() == 0 ? generatedSimpleName(type) : pkg + "." + generatedSimpleName(type);
+    }
+
+    private static String quote(String text) {
+        StringBuilder sb = new StringBuilder("\"");
+        for(int i = 0; i != text.length(); ++i) {
+            char ch = text.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                sb.append('\\').append(ch);
+            }
+            else if (ch < 0x20 || ch > 0x7E) {
+                sb.append(String.format("\\u%04x", (int) ch));
+            }
+            else {
+                sb.append(ch);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private boolean error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Kind.ERROR, message, e);
+        return false;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser.apt;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.gridkit.nanoparser.ReflectionActionSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Invalid action sources should be reported at compile time.
+ */
+public class ActionSourceProcessorErrorTest {
+
+    private static final String HEADER = "package bad;\n"
+            + "import org.gridkit.nanoparser.ReflectionActionSource;\n"
+            + "import org.gridkit.nanoparser.Token;\n";
+
+    @Test
+    public void valid_source() throws IOException {
+        Assert.assertEquals(Collections.emptyList(), compile("Good", HEADER
+                + "public class Good extends ReflectionActionSource<Void> {\n"
+                + "    @Term(\"NUM\") public int num(String body) { return 0; }\n"
+                + "}\n"));
+    }
+
+    @Test
+    public void private_host() throws IOException {
+        assertError("Action source class should not be private", "Outer", HEADER
+                + "public class Outer {\n"
+                + "    private static class Bad extends ReflectionActionSource<Void> {\n"
+                + "        @Term(\"NUM\") public Integer num(String body) { return 0; }\n"
+                + "    }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void generic_host() throws IOException {
+        assertError("Generic action source classes are not supported", "Bad", HEADER
+                + "public class Bad<T> extends ReflectionActionSource<T> {\n"
+                + "    @Term(\"NUM\") public Integer num(String body) { return 0; }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void source_is_not_token() throws IOException {
+        assertError("Method 'num' argument annotated with @Source should have type Token", "Bad", HEADER
+                + "public class Bad extends ReflectionActionSource<Void> {\n"
+                + "    @Term(\"NUM\") public Integer num(@Source String token) { return 0; }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void convertible_term() throws IOException {
+        assertError("Term method 'num' may not be annotated with @Convertible", "Bad", HEADER
+                + "public class Bad extends ReflectionActionSource<Void> {\n"
+                + "    @Term(\"NUM\") public Integer num(@Convertible String body) { return 0; }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void convertible_conversion() throws IOException {
+        assertError("Conversion method 'toStr' may not be annotated with @Convertible", "Bad", HEADER
+                + "public class Bad extends ReflectionActionSource<Void> {\n"
+                + "    @Convertion public String toStr(@Convertible Integer n) { return null; }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void binary_operand_count() throws IOException {
+        assertError("Method 'plus' - @Binary method should have two input arguments", "Bad", HEADER
+                + "public class Bad extends ReflectionActionSource<Void> {\n"
+                + "    @Binary(\"+\") public Integer plus(Integer a) { return a; }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void unary_operand_count() throws IOException {
+        assertError("Method 'neg' - @Unary method should have one input argument", "Bad", HEADER
+                + "public class Bad extends ReflectionActionSource<Void> {\n"
+                + "    @Unary(\"-\") public Integer neg(Integer a, Integer b) { return a; }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void unsupported_primitive_argument() throws IOException {
+        assertError("Method 'plus' - @Binary method input arguments should be of reference type or int/long/double/boolean", "Bad", HEADER
+                + "public class Bad extends ReflectionActionSource<Void> {\n"
+                + "    @Binary(\"+\") public Integer plus(float a, float b) { return 0; }\n"
+                + "}\n");
+    }
+
+    @Test
+    public void unsupported_primitive_return() throws IOException {
+        assertError("Method 'num' should have reference or int/long/double/boolean return type", "Bad", HEADER
+                + "public class Bad extends ReflectionActionSource<Void> {\n"
+                + "    @Term(\"NUM\") public float num(String body) { return 0; }\n"
+                + "}\n");
+    }
+
+    private static void assertError(String message, String className, String source) throws IOException {
+        List<String> errors = compile(className, source);
+        Assert.assertEquals(Arrays.asList(message), errors);
+    }
+
+    /**
+     * Runs {@link ActionSourceProcessor} over single source file.
+     *
+     * @return compilation error messages
+     */
+    private static List<String> compile(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fm = compiler.getStandardFileManager(diagnostics, null, null);
+        File out = createTempDir();
+        try {
+            String cp = new File(ReflectionActionSource.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+            List<String> options = Arrays.asList("-proc:only", "-classpath", cp, "-s", out.getPath());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fm, diagnostics, options, null, Collections.singleton(new StringSource(className, source)));
+            task.setProcessors(Collections.singleton(new ActionSourceProcessor()));
+            task.call();
+        }
+        finally {
+            fm.close();
+            delete(out);
+        }
+        List<String> errors = new ArrayList<String>();
+        for(Diagnostic<? extends JavaFileObject> d: diagnostics.getDiagnostics()) {
+            if (d.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(d.getMessage(null));
+            }
+        }
+        return errors;
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("nanoparser-apt", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for(File f: files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    private static class StringSource extends SimpleJavaFileObject {
+
+        private final String source;
+
+        public StringSource(String className, String source) {
+            super(URI.create("string:///bad/" + className + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser.apt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gridkit.nanoparser.GeneratedActionSource;
+import org.gridkit.nanoparser.NanoGrammar;
+import org.gridkit.nanoparser.NanoGrammar.SyntaticScope;
+import org.gridkit.nanoparser.NanoParser;
+import org.gridkit.nanoparser.ReflectionActionSource;
+import org.gridkit.nanoparser.SemanticActionHandler.IntBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntUnaryHandler;
+import org.gridkit.nanoparser.SemanticValidator;
+import org.gridkit.nanoparser.SematicActionSource.BinaryAction;
+import org.gridkit.nanoparser.SematicActionSource.TermAction;
+import org.gridkit.nanoparser.SematicActionSource.UnaryAction;
+import org.gridkit.nanoparser.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * {@link CalcActionSource} is generated while compiling this test.
+ */
+public class ActionSourceProcessorTest {
+
+    static final SyntaticScope GRAMMAR = NanoGrammar.newParseTable()
+            .skip("~\\s")
+            .term("NUM", "~\\d+")
+            .term("VAR", "~[a-z]+")
+            .term("STR", "~'[^']*'")
+            .infixOp("+", "+")
+            .infixOrPrefixOp("-", "-")
+            .enclosure("(", ")")
+            .toScope();
+
+    @Test
+    public void verify_generated_source() {
+        GeneratedActionSource<Map<String, Integer>> source = new ActionSourceProcessorTest_CalcActionSource(new Calc());
+        Assert.assertEquals("", SemanticValidator.validate(GRAMMAR, source));
+
+        NanoParser<Map<String, Integer>> generated = new NanoParser<Map<String, Integer>>(GRAMMAR, source);
+        NanoParser<Map<String, Integer>> reflective = new NanoParser<Map<String, Integer>>(GRAMMAR, new Calc());
+
+        Map<String, Integer> vars = new HashMap<String, Integer>();
+        vars.put("x", 5);
+
+        assertSame(generated, reflective, vars, Integer.class, "1 + 2", 3);
+        assertSame(generated, reflective, vars, Integer.class, "-x + (3 - 1)", -3);
+        assertSame(generated, reflective, vars, String.class, "'a' + 'b'", "ab");
+        assertSame(generated, reflective, vars, String.class, "'a' + (x + 1)", "a6");
+    }
+
+    @Test
+    public void verify_primitive_handlers() {
+        GeneratedActionSource<Map<String, Integer>> source = new ActionSourceProcessorTest_CalcActionSource(new Calc());
+
+        for(TermAction<Map<String, Integer>> ta: source.enumTerms()) {
+            Assert.assertEquals(ta.toString(), "NUM".equals(ta.opId()), ta.handler() instanceof IntTermHandler);
+        }
+        for(UnaryAction<Map<String, Integer>> ua: source.enumUnaries()) {
+            Assert.assertTrue(ua.toString(), ua.handler() instanceof IntUnaryHandler);
+        }
+        for(BinaryAction<Map<String, Integer>> ba: source.enumBinaries()) {
+            Assert.assertEquals(ba.toString(), ba.returnType() == Integer.class, ba.handler() instanceof IntBinaryHandler);
+        }
+
+        NanoParser<Map<String, Integer>> parser = new NanoParser<Map<String, Integer>>(GRAMMAR, source);
+        Assert.assertEquals(Integer.valueOf(-4), parser.compile(Integer.class, "-(1 + 2) - 1").eval(null));
+    }
+
+    private static <T> void assertSame(NanoParser<Map<String, Integer>> generated, NanoParser<Map<String, Integer>> reflective, Map<String, Integer> vars, Class<T> type, String text, T expected) {
+        Assert.assertEquals(expected, generated.parse(vars, type, text));
+        Assert.assertEquals(expected, reflective.parse(vars, type, text));
+    }
+
+    public static class Calc extends ReflectionActionSource<Map<String, Integer>> {
+
+        @Term("NUM")
+        public int num(String body) {
+            return Integer.parseInt(body);
+        }
+
+        @Term("VAR")
+        public Integer var(@Context Map<String, Integer> vars, CharSequence name) {
+            return vars.get(name.toString());
+        }
+
+        @Term("STR")
+        public String str(@Source Token token) {
+            String body = token.tokenBody();
+            return body.substring(1, body.length() - 1);
+        }
+
+        @Binary("+")
+        public int plus(int a, int b) {
+            return a + b;
+        }
+
+        @Binary("+")
+        public String concat(String a, @Convertible String b) {
+            return a + b;
+        }
+
+        @Binary("-")
+        public int minus(int a, int b) {
+            return a - b;
+        }
+
+        @Unary("-")
+        public int negate(int a) {
+            return -a;
+        }
+
+        @Convertion
+        public String toStr(Integer n) {
+            return String.valueOf(n);
+        }
+    }
+}
@@ -74,33 +74,15 @@ public class HeapPathParser extends ReflectionActionSource<Void> {
         int deepth;
 
         @Override
-        protected Error mapTermAction(Class<?> type, ParseNode node, int bestParsed) {
-            trace("mapTermAction: " + type.getSimpleName() + " | " + node.toString());
+        protected void inferenceStarted(Class<?> type, ParseNode node) {
+            trace("infer: " + type.getSimpleName() + " | " + node.toString());
             ++deepth;
-            Error error = super.mapTermAction(type, node, bestParsed);
-            --deepth;
-            trace(error == null ? "-> OK" : "-> ERROR: " + error);
-            return error;
         }
 
         @Override
-        protected Error mapUnaryAction(Class<?> type, ParseNode node, int bestParsed) {
-            trace("mapUnaryAction: " + type.getSimpleName() + " | " + node.toString());
-            ++deepth;
-            Error error = super.mapUnaryAction(type, node, bestParsed);
-            --deepth;
-            trace(error == null ? "-> OK" : "-> ERROR: " + error);
-            return error;
-        }
-
-        @Override
-        protected Error mapBinaryAction(Class<?> type, ParseNode node, int bestParsed) {
-            trace("mapBinaryAction: " + type.getSimpleName() + " | " + node.toString());
-            ++deepth;
-            Error error = super.mapBinaryAction(type, node, bestParsed);
+        protected void inferenceCompleted(Class<?> type, ParseNode node, Error error) {
             --deepth;
             trace(error == null ? "-> OK" : "-> ERROR: " + error);
-            return error;
         }
 
         protected void trace(String text) {
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+/**
+ * Helpers shared by semantic action sources.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class ActionSupport {
+
+    /**
+     * Only int, long, double and boolean are supported by action sources,
+     * other primitive types are returned as is and should be rejected by caller.
+     *
+     * @return wrapper class for supported primitive type, other types are returned as is
+     */
+    static Class<?> boxed(Class<?> type) {
+        if (type == int.class) {
+            return Integer.class;
+        }
+        else if (type == long.class) {
+            return Long.class;
+        }
+        else if (type == double.class) {
+            return Double.class;
+        }
+        else if (type == boolean.class) {
+            return Boolean.class;
+        }
+        else {
+            return type;
+        }
+    }
+
+    /**
+     * Binds {@link TokenAware} action result to its token.
+     */
+    static Object postProcess(Object v, Token token) {
+        if (v instanceof TokenAware) {
+            ((TokenAware) v).setToken(token);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.UnaryActionHandler;
+import org.gridkit.nanoparser.SematicActionSource.BinaryAction;
+import org.gridkit.nanoparser.SematicActionSource.Converter;
+import org.gridkit.nanoparser.SematicActionSource.TermAction;
+import org.gridkit.nanoparser.SematicActionSource.UnaryAction;
+
+/**
+ * Builder of {@link SematicActionSource} from action functions.
+ * Each action calls its function directly, no reflection is involved,
+ * so set of actions could be assembled at runtime.
+ * <br/>
+ * Primitive flavors (e.g. {@link Builder#intBinary(String, IntBinaryFunction)})
+ * produce actions which compiled expressions chain without boxing.
+ * <pre>
+ * Actions.&lt;Void&gt;builder()
+ *     .term("NUM", Integer.class, new TermFunction&lt;Void, Integer&gt;() {...})
+ *     .binary("+", Integer.class, Integer.class, Integer.class, new BinaryFunction&lt;Void, Integer, Integer, Integer&gt;() {...})
+ *     .toSource();
+ * </pre>
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class Actions {
+
+    public static <C> Builder<C> builder() {
+        return new Builder<C>();
+    }
+
+    public interface TermFunction<C, R> {
+
+        public R apply(C parserContext, Token token);
+    }
+
+    public interface UnaryFunction<C, R, A> {
+
+        public R apply(C parserContext, Token token, A arg);
+    }
+
+    public interface BinaryFunction<C, R, A, B> {
+
+        public R apply(C parserContext, Token token, A leftArg, B rightArg);
+    }
+
+    public interface IntTermFunction<C> {
+
+        public int apply(C parserContext, Token token);
+    }
+
+    public interface IntUnaryFunction<C> {
+
+        public int apply(C parserContext, Token token, int arg);
+    }
+
+    public interface IntBinaryFunction<C> {
+
+        public int apply(C parserContext, Token token, int leftArg, int rightArg);
+    }
+
+    public interface LongTermFunction<C> {
+
+        public long apply(C parserContext, Token token);
+    }
+
+    public interface LongUnaryFunction<C> {
+
+        public long apply(C parserContext, Token token, long arg);
+    }
+
+    public interface LongBinaryFunction<C> {
+
+        public long apply(C parserContext, Token token, long leftArg, long rightArg);
+    }
+
+    public interface DoubleTermFunction<C> {
+
+        public double apply(C parserContext, Token token);
+    }
+
+    public interface DoubleUnaryFunction<C> {
+
+        public double apply(C parserContext, Token token, double arg);
+    }
+
+    public interface DoubleBinaryFunction<C> {
+
+        public double apply(C parserContext, Token token, double leftArg, double rightArg);
+    }
+
+    public interface BooleanTermFunction<C> {
+
+        public boolean apply(C parserContext, Token token);
+    }
+
+    public interface BooleanUnaryFunction<C> {
+
+        public boolean apply(C parserContext, Token token, boolean arg);
+    }
+
+    public interface BooleanBinaryFunction<C> {
+
+        public boolean apply(C parserContext, Token token, boolean leftArg, boolean rightArg);
+    }
+
+    public static class Builder<C> {
+
+        private final List<TermAction<C>> terms = new ArrayList<TermAction<C>>();
+        private final List<Converter<C>> convertors = new ArrayList<Converter<C>>();
+        private final List<UnaryAction<C>> unaries = new ArrayList<UnaryAction<C>>();
+        private final List<BinaryAction<C>> binaries = new ArrayList<BinaryAction<C>>();
+        /** Last added unary or binary action, target of {@link #convertible()} */
+        private Object last;
+
+        Builder() {
+        }
+
+        public <R> Builder<C> term(String opId, Class<R> returnType, TermFunction<C, ? extends R> function) {
+            return addTerm(new FunctionTerm<C>(opId, boxed(returnType), function));
+        }
+
+        public <R, A> Builder<C> unary(String opId, Class<R> returnType, Class<A> argType, UnaryFunction<C, ? extends R, ? super A> function) {
+            return addUnary(new FunctionUnary<C>(opId, boxed(returnType), boxed(argType), function));
+        }
+
+        public <R, A, B> Builder<C> binary(String opId, Class<R> returnType, Class<A> leftType, Class<B> rightType, BinaryFunction<C, ? extends R, ? super A, ? super B> function) {
+            return addBinary(new FunctionBinary<C>(opId, boxed(returnType), boxed(leftType), boxed(rightType), function));
+        }
+
+        public Builder<C> intTerm(String opId, final IntTermFunction<C> function) {
+            return addTerm(new PrimitiveActions.IntTerm<C>(opId, function) {
+                @Override
+                public int applyInt(C parserContext, Token token) {
+                    return function.apply(parserContext, token);
+                }
+            });
+        }
+
+        public Builder<C> intUnary(String opId, final IntUnaryFunction<C> function) {
+            return addUnary(new PrimitiveActions.IntUnary<C>(opId, PrimitiveActions.types(Integer.class), function) {
+                @Override
+                public int applyInt(C parserContext, Token token, int arg) {
+                    return function.apply(parserContext, token, arg);
+                }
+            });
+        }
+
+        public Builder<C> intBinary(String opId, final IntBinaryFunction<C> function) {
+            return addBinary(new PrimitiveActions.IntBinary<C>(opId, PrimitiveActions.types(Integer.class), PrimitiveActions.types(Integer.class), function) {
+                @Override
+                public int applyInt(C parserContext, Token token, int leftArg, int rightArg) {
+                    return function.apply(parserContext, token, leftArg, rightArg);
+                }
+            });
+        }
+
+        public Builder<C> longTerm(String opId, final LongTermFunction<C> function) {
+            return addTerm(new PrimitiveActions.LongTerm<C>(opId, function) {
+                @Override
+                public long applyLong(C parserContext, Token token) {
+                    return function.apply(parserContext, token);
+                }
+            });
+        }
+
+        public Builder<C> longUnary(String opId, final LongUnaryFunction<C> function) {
+            return addUnary(new PrimitiveActions.LongUnary<C>(opId, PrimitiveActions.types(Long.class), function) {
+                @Override
+                public long applyLong(C parserContext, Token token, long arg) {
+                    return function.apply(parserContext, token, arg);
+                }
+            });
+        }
+
+        public Builder<C> longBinary(String opId, final LongBinaryFunction<C> function) {
+            return addBinary(new PrimitiveActions.LongBinary<C>(opId, PrimitiveActions.types(Long.class), PrimitiveActions.types(Long.class), function) {
+                @Override
+                public long applyLong(C parserContext, Token token, long leftArg, long rightArg) {
+                    return function.apply(parserContext, token, leftArg, rightArg);
+                }
+            });
+        }
+
+        public Builder<C> doubleTerm(String opId, final DoubleTermFunction<C> function) {
+            return addTerm(new PrimitiveActions.DoubleTerm<C>(opId, function) {
+                @Override
+                public double applyDouble(C parserContext, Token token) {
+                    return function.apply(parserContext, token);
+                }
+            });
+        }
+
+        public Builder<C> doubleUnary(String opId, final DoubleUnaryFunction<C> function) {
+            return addUnary(new PrimitiveActions.DoubleUnary<C>(opId, PrimitiveActions.types(Double.class), function) {
+                @Override
+                public double applyDouble(C parserContext, Token token, double arg) {
+                    return function.apply(parserContext, token, arg);
+                }
+            });
+        }
+
+        public Builder<C> doubleBinary(String opId, final DoubleBinaryFunction<C> function) {
+            return addBinary(new PrimitiveActions.DoubleBinary<C>(opId, PrimitiveActions.types(Double.class), PrimitiveActions.types(Double.class), function) {
+                @Override
+                public double applyDouble(C parserContext, Token token, double leftArg, double rightArg) {
+                    return function.apply(parserContext, token, leftArg, rightArg);
+                }
+            });
+        }
+
+        public Builder<C> booleanTerm(String opId, final BooleanTermFunction<C> function) {
+            return addTerm(new PrimitiveActions.BooleanTerm<C>(opId, function) {
+                @Override
+                public boolean applyBoolean(C parserContext, Token token) {
+                    return function.apply(parserContext, token);
+                }
+            });
+        }
+
+        public Builder<C> booleanUnary(String opId, final BooleanUnaryFunction<C> function) {
+            return addUnary(new PrimitiveActions.BooleanUnary<C>(opId, PrimitiveActions.types(Boolean.class), function) {
+                @Override
+                public boolean applyBoolean(C parserContext, Token token, boolean arg) {
+                    return function.apply(parserContext, token, arg);
+                }
+            });
+        }
+
+        public Builder<C> booleanBinary(String opId, final BooleanBinaryFunction<C> function) {
+            return addBinary(new PrimitiveActions.BooleanBinary<C>(opId, PrimitiveActions.types(Boolean.class), PrimitiveActions.types(Boolean.class), function) {
+                @Override
+                public boolean applyBoolean(C parserContext, Token token, boolean leftArg, boolean rightArg) {
+                    return function.apply(parserContext, token, leftArg, rightArg);
+                }
+            });
+        }
+
+        private Builder<C> addTerm(TermAction<C> action) {
+            for(TermAction<C> ta: terms) {
+                if (ta.opId().equals(action.opId()) && ta.returnType() == action.returnType()) {
+                    throw new IllegalArgumentException("Ambiguous term '" + action.opId() + "' handler for type " + action.returnType().getSimpleName());
+                }
+            }
+            terms.add(action);
+            last = null;
+            return this;
+        }
+
+        private Builder<C> addUnary(UnaryAction<C> action) {
+            unaries.add(action);
+            last = action;
+            return this;
+        }
+
+        private Builder<C> addBinary(BinaryAction<C> action) {
+            binaries.add(action);
+            last = action;
+            return this;
+        }
+
+        public <R, A> Builder<C> converter(Class<R> returnType, Class<A> argType, UnaryFunction<C, ? extends R, ? super A> function) {
+            convertors.add(new FunctionUnary<C>(null, boxed(returnType), boxed(argType), function));
+            last = null;
+            return this;
+        }
+
+        /**
+         * Arguments of last unary or binary action accept any type
+         * which could be converted to argument type.
+         */
+        public Builder<C> convertible() {
+            return convertible((Class<?>[]) null);
+        }
+
+        /**
+         * Arguments of last unary or binary action accept listed types
+         * in addition to argument type, if conversion is available.
+         */
+        public Builder<C> convertible(Class<?>... types) {
+            if (last instanceof UnaryAction) {
+                setConvertibleArg((UnaryAction<?>) last, types);
+            }
+            else if (last instanceof BinaryAction) {
+                setConvertibleLeft((BinaryAction<?>) last, types);
+                setConvertibleRight((BinaryAction<?>) last, types);
+            }
+            else {
+                throw new IllegalStateException("No unary or binary action to make convertible");
+            }
+            return this;
+        }
+
+        /**
+         * Left argument of last binary action accepts listed types
+         * in addition to argument type, if conversion is available.
+         * Without types any convertible type is accepted.
+         */
+        public Builder<C> convertibleLeft(Class<?>... types) {
+            setConvertibleLeft(lastBinary(), types);
+            return this;
+        }
+
+        /**
+         * Right argument of last binary action accepts listed types
+         * in addition to argument type, if conversion is available.
+         * Without types any convertible type is accepted.
+         */
+        public Builder<C> convertibleRight(Class<?>... types) {
+            setConvertibleRight(lastBinary(), types);
+            return this;
+        }
+
+        private BinaryAction<?> lastBinary() {
+            if (last instanceof BinaryAction) {
+                return (BinaryAction<?>) last;
+            }
+            else {
+                throw new IllegalStateException("No binary action to make convertible");
+            }
+        }
+
+        public SematicActionSource<C> toSource() {
+            final Collection<TermAction<C>> terms = Collections.unmodifiableList(new ArrayList<TermAction<C>>(this.terms));
+            final Collection<Converter<C>> convertors = Collections.unmodifiableList(new ArrayList<Converter<C>>(this.convertors));
+            final Collection<UnaryAction<C>> unaries = Collections.unmodifiableList(new ArrayList<UnaryAction<C>>(this.unaries));
+            final Collection<BinaryAction<C>> binaries = Collections.unmodifiableList(new ArrayList<BinaryAction<C>>(this.binaries));
+            return new SematicActionSource<C>() {
+
+                @Override
+                public Collection<TermAction<C>> enumTerms() {
+                    return terms;
+                }
+
+                @Override
+                public Collection<UnaryAction<C>> enumUnaries() {
+                    return unaries;
+                }
+
+                @Override
+                public Collection<BinaryAction<C>> enumBinaries() {
+                    return binaries;
+                }
+
+                @Override
+                public Collection<Converter<C>> enumConverters() {
+                    return convertors;
+                }
+            };
+        }
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        Class<?> bt = ActionSupport.boxed(type);
+        if (bt.isPrimitive()) {
+            throw new IllegalArgumentException("Unsupported type: " + type.getName() + ", only int/long/double/boolean primitives are supported");
+        }
+        return bt;
+    }
+
+    private static void setConvertibleArg(UnaryAction<?> action, Class<?>[] types) {
+        Collection<Class<?>> ct = convertibleTypes(action.argType(), types);
+        if (action instanceof FunctionUnary) {
+            ((FunctionUnary<?>) action).convertibleArgTypes = ct;
+        }
+        else {
+            ((PrimitiveActions.Unary<?, ?>) action).convertibleArgTypes = ct;
+        }
+    }
+
+    private static void setConvertibleLeft(BinaryAction<?> action, Class<?>[] types) {
+        Collection<Class<?>> ct = convertibleTypes(action.leftType(), types);
+        if (action instanceof FunctionBinary) {
+            ((FunctionBinary<?>) action).convertibleLeftTypes = ct;
+        }
+        else {
+            ((PrimitiveActions.Binary<?, ?>) action).convertibleLeftTypes = ct;
+        }
+    }
+
+    private static void setConvertibleRight(BinaryAction<?> action, Class<?>[] types) {
+        Collection<Class<?>> ct = convertibleTypes(action.rightType(), types);
+        if (action instanceof FunctionBinary) {
+            ((FunctionBinary<?>) action).convertibleRightTypes = ct;
+        }
+        else {
+            ((PrimitiveActions.Binary<?, ?>) action).convertibleRightTypes = ct;
+        }
+    }
+
+    /**
+     * Same convention as <code>@Convertible</code> annotation of {@link ReflectionActionSource}.
+     */
+    private static Collection<Class<?>> convertibleTypes(Class<?> argType, Class<?>[] types) {
+        if (types == null || types.length == 0) {
+            return null;
+        }
+        Class<?>[] set = new Class<?>[types.length + 1];
+        set[0] = argType;
+        System.arraycopy(types, 0, set, 1, types.length);
+        return Arrays.asList(set);
+    }
+
+    private static class FunctionTerm<C> implements TermAction<C>, TermActionHandler<C, Object> {
+
+        private final String opId;
+        private final Class<Object> returnType;
+        private final TermFunction<C, ?> function;
+
+        @SuppressWarnings("unchecked")
+        public FunctionTerm(String opId, Class<?> returnType, TermFunction<C, ?> function) {
+            this.opId = opId;
+            this.returnType = (Class<Object>) returnType;
+            this.function = function;
+        }
+
+        @Override
+        public String opId() {
+            return opId;
+        }
+
+        @Override
+        public Class<Object> returnType() {
+            return returnType;
+        }
+
+        @Override
+        public Object implemetationReference() {
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R> TermActionHandler<C, R> handler() {
+            return (TermActionHandler<C, R>) (TermActionHandler<C, ?>) this;
+        }
+
+        @Override
+        public Object apply(C parserContext, Token token) {
+            return ActionSupport.postProcess(function.apply(parserContext, token), token);
+        }
+
+        @Override
+        public String toString() {
+            return opId + " -> " + returnType.getSimpleName();
+        }
+    }
+
+    /**
+     * Unary operator or conversion.
+     */
+    private static class FunctionUnary<C> implements UnaryAction<C>, Converter<C>, UnaryActionHandler<C, Object, Object> {
+
+        private final String opId;
+        private final Class<Object> returnType;
+        private final Class<Object> argType;
+        private final UnaryFunction<C, ?, Object> function;
+        private Collection<Class<?>> convertibleArgTypes;
+
+        @SuppressWarnings("unchecked")
+        public FunctionUnary(String opId, Class<?> returnType, Class<?> argType, UnaryFunction<C, ?, ?> function) {
+            this.opId = opId;
+            this.returnType = (Class<Object>) returnType;
+            this.argType = (Class<Object>) argType;
+            this.function = (UnaryFunction<C, ?, Object>) function;
+            this.convertibleArgTypes = Collections.<Class<?>>singleton(argType);
+        }
+
+        @Override
+        public String opId() {
+            return opId;
+        }
+
+        @Override
+        public Class<Object> returnType() {
+            return returnType;
+        }
+
+        @Override
+        public Class<Object> argType() {
+            return argType;
+        }
+
+        @Override
+        public Class<?> inputType() {
+            return argType;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleArgTypes() {
+            return convertibleArgTypes;
+        }
+
+        @Override
+        public Object implemetationReference() {
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R, A> UnaryActionHandler<C, R, A> handler() {
+            return (UnaryActionHandler<C, R, A>) (UnaryActionHandler<C, ?, ?>) this;
+        }
+
+        @Override
+        public Object apply(C parserContext, Token token, Object arg) {
+            return ActionSupport.postProcess(function.apply(parserContext, token, arg), token);
+        }
+
+        @Override
+        public String toString() {
+            return (opId == null ? "convert" : opId) + " (" + argType.getSimpleName() + ") -> " + returnType.getSimpleName();
+        }
+    }
+
+    private static class FunctionBinary<C> implements BinaryAction<C>, BinaryActionHandler<C, Object, Object, Object> {
+
+        private final String opId;
+        private final Class<Object> returnType;
+        private final Class<Object> leftType;
+        private final Class<Object> rightType;
+        private final BinaryFunction<C, ?, Object, Object> function;
+        private Collection<Class<?>> convertibleLeftTypes;
+        private Collection<Class<?>> convertibleRightTypes;
+
+        @SuppressWarnings("unchecked")
+        public FunctionBinary(String opId, Class<?> returnType, Class<?> leftType, Class<?> rightType, BinaryFunction<C, ?, ?, ?> function) {
+            this.opId = opId;
+            this.returnType = (Class<Object>) returnType;
+            this.leftType = (Class<Object>) leftType;
+            this.rightType = (Class<Object>) rightType;
+            this.function = (BinaryFunction<C, ?, Object, Object>) function;
+            this.convertibleLeftTypes = Collections.<Class<?>>singleton(leftType);
+            this.convertibleRightTypes = Collections.<Class<?>>singleton(rightType);
+        }
+
+        @Override
+        public String opId() {
+            return opId;
+        }
+
+        @Override
+        public Class<Object> returnType() {
+            return returnType;
+        }
+
+        @Override
+        public Class<Object> leftType() {
+            return leftType;
+        }
+
+        @Override
+        public Class<Object> rightType() {
+            return rightType;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleLeftTypes() {
+            return convertibleLeftTypes;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleRightTypes() {
+            return convertibleRightTypes;
+        }
+
+        @Override
+        public Object implemetationReference() {
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R, A, B> BinaryActionHandler<C, R, A, B> handler() {
+            return (BinaryActionHandler<C, R, A, B>) (BinaryActionHandler<C, ?, ?, ?>) this;
+        }
+
+        @Override
+        public Object apply(C parserContext, Token token, Object left, Object right) {
+            return ActionSupport.postProcess(function.apply(parserContext, token, left, right), token);
+        }
+
+        @Override
+        public String toString() {
+            return opId + " (" + leftType.getSimpleName() + ", " + rightType.getSimpleName() + ") -> " + returnType.getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+/**
+ * Expression parsed and bound to semantic actions once,
+ * see {@link NanoParser#compile(Class, String)}.
+ * <br/>
+ * Instances could be evaluated concurrently, provided semantic
+ * actions are thread safe.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface CompiledExpression<C, T> {
+
+    /**
+     * Applies semantic actions to parsed expression.
+     */
+    public T eval(C parserContext);
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Combines literal and regex patterns of a scope into single
+ * alternation, so one scan finds first declared pattern matching input.
+ * <br/>
+ * Alternation in java.util.regex is ordered, so winner is same
+ * as if patterns were tried one by one. Patterns which cannot be
+ * expressed this way (multi token patterns, comments, custom matchers,
+ * back references) or <code>null</code> patterns are left to be tried
+ * individually in their declaration order.
+ */
+class CompiledLexer {
+
+    /** No compiled pattern matches input */
+    public static final int NO_MATCH = -1;
+
+    /** Compiled alternation has matched empty string, all patterns should be tried */
+    public static final int TRY_ALL = -2;
+
+    private static final Pattern BACKREF = Pattern.compile("\\\\(\\d|k<)");
+
+    private final TokenMatcher[][] patterns;
+    /** Capturing group of alternative, -1 if pattern is not compiled */
+    private final int[] groups;
+    private final ThreadLocal<Matcher> matcher;
+
+    public CompiledLexer(TokenMatcher[][] patterns) {
+        this.patterns = patterns;
+        this.groups = new int[patterns.length];
+        StringBuilder sb = new StringBuilder();
+        int group = 1;
+        for(int i = 0; i != patterns.length; ++i) {
+            String regEx = patterns[i] != null && patterns[i].length == 1 ? toRegEx(patterns[i][0]) : null;
+            if (regEx == null) {
+                groups[i] = -1;
+            }
+            else {
+                if (sb.length() > 0) {
+                    sb.append('|');
+                }
+                sb.append('(').append(regEx).append(')');
+                groups[i] = group;
+                group += 1 + Pattern.compile(regEx).matcher("").groupCount();
+            }
+        }
+        ThreadLocal<Matcher> m = null;
+        if (sb.length() > 0) {
+            try {
+                m = RegExMatcher.matcherPool(Pattern.compile(sb.toString()));
+            }
+            catch(PatternSyntaxException e) {
+                // patterns are incompatible (e.g. duplicate group names), do not compile
+                for(int i = 0; i != groups.length; ++i) {
+                    groups[i] = -1;
+                }
+            }
+        }
+        this.matcher = m;
+    }
+
+    public boolean isCompiled(int n) {
+        return groups[n] >= 0;
+    }
+
+    /**
+     * Patterns which are not compiled should always be tried individually
+     * in order. Compiled patterns are matching only if their index is
+     * returned by this method, unless {@link #TRY_ALL} is returned.
+     *
+     * @return index of first compiled pattern matching input, {@link #NO_MATCH} or {@link #TRY_ALL}
+     */
+    public int lookup(CharSequence cs, int offset) {
+        if (matcher == null) {
+            return NO_MATCH;
+        }
+        Matcher m = matcher.get();
+        try {
+            m.reset(cs);
+            m.region(offset, cs.length());
+            if (m.lookingAt()) {
+                if (m.end() == offset) {
+                    // empty match is not a token
+                    return TRY_ALL;
+                }
+                for(int i = 0; i != groups.length; ++i) {
+                    if (groups[i] >= 0 && m.start(groups[i]) >= 0) {
+                        return i;
+                    }
+                }
+            }
+            return NO_MATCH;
+        }
+        finally {
+            // pooled matcher should not retain parsed text
+            m.reset("");
+        }
+    }
+
+    /**
+     * @return {@link TokenMatcher} equivalent to {@link MultiMatcher} of same patterns
+     */
+    public TokenMatcher toMatcher(CharSet firstChar) {
+        return new LexerMatcher(firstChar);
+    }
+
+    static String toRegEx(TokenMatcher tm) {
+        if (tm instanceof StringMatcher) {
+            return Pattern.quote(((StringMatcher) tm).text());
+        }
+        else if (tm instanceof RegExMatcher) {
+            String regEx = ((RegExMatcher) tm).pattern().pattern();
+            // group numbers would be shifted in combined pattern
+            return BACKREF.matcher(regEx).find() ? null : regEx;
+        }
+        else if (tm instanceof Whitespace) {
+            return "\\p{javaWhitespace}";
+        }
+        else {
+            return null;
+        }
+    }
+
+    private class LexerMatcher implements TokenMatcher {
+
+        private final CharSet firstChar;
+
+        public LexerMatcher(CharSet firstChar) {
+            this.firstChar = firstChar;
+        }
+
+        @Override
+        public CharSet firstCharacter() {
+            return firstChar;
+        }
+
+        @Override
+        public int match(CharSequence cs, int offset) {
+            int alt = lookup(cs, offset);
+            for(int i = 0; i != patterns.length; ++i) {
+                if (alt != TRY_ALL && isCompiled(i) && i != alt) {
+                    continue;
+                }
+                int n = patterns[i][0].match(cs, offset);
+                if (n > 0) {
+                    return n;
+                }
+            }
+            return -1;
+        }
+    }
+}
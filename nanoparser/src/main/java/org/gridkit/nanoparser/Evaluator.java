@@ -0,0 +1,610 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gridkit.nanoparser.SemanticActionHandler.ActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.UnaryActionHandler;
+
+/**
+ * Node of evaluation tree built from type resolved parse tree.
+ * Each node calls its handler directly, so evaluation does not
+ * need to inspect parse tree.
+ * <br/>
+ * Primitive methods unbox result of {@link #eval(Object)}, nodes
+ * backed by primitive handlers override them to avoid boxing.
+ */
+abstract class Evaluator<C> {
+
+    /** Deeper trees are wrapped into {@link Iterative} evaluator */
+    static final int MAX_RECURSIVE_DEPTH = 512;
+
+    public abstract Object eval(C parserContext);
+
+    /**
+     * Computes value of this node from values of its operands.
+     */
+    abstract Object apply(C parserContext, Object left, Object right);
+
+    Evaluator<C> left() {
+        return null;
+    }
+
+    Evaluator<C> right() {
+        return null;
+    }
+
+    public int evalInt(C parserContext) {
+        return ((Integer) eval(parserContext)).intValue();
+    }
+
+    public long evalLong(C parserContext) {
+        return ((Long) eval(parserContext)).longValue();
+    }
+
+    public double evalDouble(C parserContext) {
+        return ((Double) eval(parserContext)).doubleValue();
+    }
+
+    public boolean evalBoolean(C parserContext) {
+        return ((Boolean) eval(parserContext)).booleanValue();
+    }
+
+    static ParserException error(Token nodeToken, SemanticExpection e) {
+        Token tkn = e.getToken();
+        tkn = tkn == null ? nodeToken : tkn;
+        return new ParserException(tkn, e.getMessage(), e);
+    }
+
+    /**
+     * Term without action, its value is token text.
+     */
+    static final class Text<C> extends Evaluator<C> {
+
+        private final String text;
+
+        public Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            return text;
+        }
+
+        @Override
+        Object apply(C parserContext, Object left, Object right) {
+            return text;
+        }
+    }
+
+    static final class Term<C> extends Evaluator<C> {
+
+        private final TermActionHandler<C, ?> handler;
+        private final Token token;
+
+        public Term(TermActionHandler<C, ?> handler, Token token) {
+            this.handler = handler;
+            this.token = token;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            return apply(parserContext, null, null);
+        }
+
+        @Override
+        Object apply(C parserContext, Object left, Object right) {
+            try {
+                return handler.apply(parserContext, token);
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+    }
+
+    static final class Unary<C> extends Evaluator<C> {
+
+        private final UnaryActionHandler<C, ?, Object> handler;
+        private final Token token;
+        private final Evaluator<C> arg;
+
+        public Unary(UnaryActionHandler<C, ?, Object> handler, Token token, Evaluator<C> arg) {
+            this.handler = handler;
+            this.token = token;
+            this.arg = arg;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            return apply(parserContext, arg.eval(parserContext), null);
+        }
+
+        @Override
+        Object apply(C parserContext, Object left, Object right) {
+            try {
+                return handler.apply(parserContext, token, left);
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+
+        @Override
+        Evaluator<C> left() {
+            return arg;
+        }
+    }
+
+    static final class Binary<C> extends Evaluator<C> {
+
+        private final BinaryActionHandler<C, ?, Object, Object> handler;
+        private final Token token;
+        private final Evaluator<C> left;
+        private final Evaluator<C> right;
+
+        public Binary(BinaryActionHandler<C, ?, Object, Object> handler, Token token, Evaluator<C> left, Evaluator<C> right) {
+            this.handler = handler;
+            this.token = token;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            Object a = left.eval(parserContext);
+            Object b = right.eval(parserContext);
+            return apply(parserContext, a, b);
+        }
+
+        @Override
+        Object apply(C parserContext, Object a, Object b) {
+            try {
+                return handler.apply(parserContext, token, a, b);
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+
+        @Override
+        Evaluator<C> left() {
+            return left;
+        }
+
+        @Override
+        Evaluator<C> right() {
+            return right;
+        }
+    }
+
+    /**
+     * Term, unary or binary node backed by {@link IntTermHandler}, {@link IntUnaryHandler}
+     * or {@link IntBinaryHandler}, <code>null</code> operands define arity.
+     */
+    static final class IntOp<C> extends Evaluator<C> {
+
+        private final IntTermHandler<C> term;
+        private final IntUnaryHandler<C> unary;
+        private final IntBinaryHandler<C> binary;
+        private final Token token;
+        private final Evaluator<C> left;
+        private final Evaluator<C> right;
+
+        @SuppressWarnings("unchecked")
+        public IntOp(ActionHandler handler, Token token, Evaluator<C> left, Evaluator<C> right) {
+            this.term = left == null ? (IntTermHandler<C>) handler : null;
+            this.unary = left != null && right == null ? (IntUnaryHandler<C>) handler : null;
+            this.binary = right != null ? (IntBinaryHandler<C>) handler : null;
+            this.token = token;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            return Integer.valueOf(evalInt(parserContext));
+        }
+
+        @Override
+        Object apply(C parserContext, Object a, Object b) {
+            try {
+                if (left == null) {
+                    return term.applyInt(parserContext, token);
+                }
+                else if (right == null) {
+                    return unary.applyInt(parserContext, token, ((Integer) a).intValue());
+                }
+                else {
+                    return binary.applyInt(parserContext, token, ((Integer) a).intValue(), ((Integer) b).intValue());
+                }
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+
+        @Override
+        Evaluator<C> left() {
+            return left;
+        }
+
+        @Override
+        Evaluator<C> right() {
+            return right;
+        }
+
+        @Override
+        public int evalInt(C parserContext) {
+            if (left == null) {
+                try {
+                    return term.applyInt(parserContext, token);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            int a = left.evalInt(parserContext);
+            if (right == null) {
+                try {
+                    return unary.applyInt(parserContext, token, a);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            int b = right.evalInt(parserContext);
+            try {
+                return binary.applyInt(parserContext, token, a, b);
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+    }
+
+    /**
+     * Term, unary or binary node backed by {@link LongTermHandler}, {@link LongUnaryHandler}
+     * or {@link LongBinaryHandler}, <code>null</code> operands define arity.
+     */
+    static final class LongOp<C> extends Evaluator<C> {
+
+        private final LongTermHandler<C> term;
+        private final LongUnaryHandler<C> unary;
+        private final LongBinaryHandler<C> binary;
+        private final Token token;
+        private final Evaluator<C> left;
+        private final Evaluator<C> right;
+
+        @SuppressWarnings("unchecked")
+        public LongOp(ActionHandler handler, Token token, Evaluator<C> left, Evaluator<C> right) {
+            this.term = left == null ? (LongTermHandler<C>) handler : null;
+            this.unary = left != null && right == null ? (LongUnaryHandler<C>) handler : null;
+            this.binary = right != null ? (LongBinaryHandler<C>) handler : null;
+            this.token = token;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            return Long.valueOf(evalLong(parserContext));
+        }
+
+        @Override
+        Object apply(C parserContext, Object a, Object b) {
+            try {
+                if (left == null) {
+                    return term.applyLong(parserContext, token);
+                }
+                else if (right == null) {
+                    return unary.applyLong(parserContext, token, ((Long) a).longValue());
+                }
+                else {
+                    return binary.applyLong(parserContext, token, ((Long) a).longValue(), ((Long) b).longValue());
+                }
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+
+        @Override
+        Evaluator<C> left() {
+            return left;
+        }
+
+        @Override
+        Evaluator<C> right() {
+            return right;
+        }
+
+        @Override
+        public long evalLong(C parserContext) {
+            if (left == null) {
+                try {
+                    return term.applyLong(parserContext, token);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            long a = left.evalLong(parserContext);
+            if (right == null) {
+                try {
+                    return unary.applyLong(parserContext, token, a);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            long b = right.evalLong(parserContext);
+            try {
+                return binary.applyLong(parserContext, token, a, b);
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+    }
+
+    /**
+     * Term, unary or binary node backed by {@link DoubleTermHandler}, {@link DoubleUnaryHandler}
+     * or {@link DoubleBinaryHandler}, <code>null</code> operands define arity.
+     */
+    static final class DoubleOp<C> extends Evaluator<C> {
+
+        private final DoubleTermHandler<C> term;
+        private final DoubleUnaryHandler<C> unary;
+        private final DoubleBinaryHandler<C> binary;
+        private final Token token;
+        private final Evaluator<C> left;
+        private final Evaluator<C> right;
+
+        @SuppressWarnings("unchecked")
+        public DoubleOp(ActionHandler handler, Token token, Evaluator<C> left, Evaluator<C> right) {
+            this.term = left == null ? (DoubleTermHandler<C>) handler : null;
+            this.unary = left != null && right == null ? (DoubleUnaryHandler<C>) handler : null;
+            this.binary = right != null ? (DoubleBinaryHandler<C>) handler : null;
+            this.token = token;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            return Double.valueOf(evalDouble(parserContext));
+        }
+
+        @Override
+        Object apply(C parserContext, Object a, Object b) {
+            try {
+                if (left == null) {
+                    return term.applyDouble(parserContext, token);
+                }
+                else if (right == null) {
+                    return unary.applyDouble(parserContext, token, ((Double) a).doubleValue());
+                }
+                else {
+                    return binary.applyDouble(parserContext, token, ((Double) a).doubleValue(), ((Double) b).doubleValue());
+                }
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+
+        @Override
+        Evaluator<C> left() {
+            return left;
+        }
+
+        @Override
+        Evaluator<C> right() {
+            return right;
+        }
+
+        @Override
+        public double evalDouble(C parserContext) {
+            if (left == null) {
+                try {
+                    return term.applyDouble(parserContext, token);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            double a = left.evalDouble(parserContext);
+            if (right == null) {
+                try {
+                    return unary.applyDouble(parserContext, token, a);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            double b = right.evalDouble(parserContext);
+            try {
+                return binary.applyDouble(parserContext, token, a, b);
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+    }
+
+    /**
+     * Term, unary or binary node backed by {@link BooleanTermHandler}, {@link BooleanUnaryHandler}
+     * or {@link BooleanBinaryHandler}, <code>null</code> operands define arity.
+     */
+    static final class BooleanOp<C> extends Evaluator<C> {
+
+        private final BooleanTermHandler<C> term;
+        private final BooleanUnaryHandler<C> unary;
+        private final BooleanBinaryHandler<C> binary;
+        private final Token token;
+        private final Evaluator<C> left;
+        private final Evaluator<C> right;
+
+        @SuppressWarnings("unchecked")
+        public BooleanOp(ActionHandler handler, Token token, Evaluator<C> left, Evaluator<C> right) {
+            this.term = left == null ? (BooleanTermHandler<C>) handler : null;
+            this.unary = left != null && right == null ? (BooleanUnaryHandler<C>) handler : null;
+            this.binary = right != null ? (BooleanBinaryHandler<C>) handler : null;
+            this.token = token;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            return Boolean.valueOf(evalBoolean(parserContext));
+        }
+
+        @Override
+        Object apply(C parserContext, Object a, Object b) {
+            try {
+                if (left == null) {
+                    return term.applyBoolean(parserContext, token);
+                }
+                else if (right == null) {
+                    return unary.applyBoolean(parserContext, token, ((Boolean) a).booleanValue());
+                }
+                else {
+                    return binary.applyBoolean(parserContext, token, ((Boolean) a).booleanValue(), ((Boolean) b).booleanValue());
+                }
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+
+        @Override
+        Evaluator<C> left() {
+            return left;
+        }
+
+        @Override
+        Evaluator<C> right() {
+            return right;
+        }
+
+        @Override
+        public boolean evalBoolean(C parserContext) {
+            if (left == null) {
+                try {
+                    return term.applyBoolean(parserContext, token);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            boolean a = left.evalBoolean(parserContext);
+            if (right == null) {
+                try {
+                    return unary.applyBoolean(parserContext, token, a);
+                }
+                catch(SemanticExpection e) {
+                    throw error(token, e);
+                }
+            }
+            boolean b = right.evalBoolean(parserContext);
+            try {
+                return binary.applyBoolean(parserContext, token, a, b);
+            }
+            catch(SemanticExpection e) {
+                throw error(token, e);
+            }
+        }
+    }
+
+    /**
+     * Evaluates deep tree without recursion. Nodes are flattened
+     * in post order, operand values are kept on explicit stack.
+     */
+    static final class Iterative<C> extends Evaluator<C> {
+
+        private final Evaluator<C>[] nodes;
+        private final int[] arity;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Iterative(Evaluator<C> root) {
+            List<Evaluator<C>> order = new ArrayList<Evaluator<C>>();
+            List<Evaluator<C>> stack = new ArrayList<Evaluator<C>>();
+            stack.add(root);
+            while(!stack.isEmpty()) {
+                Evaluator<C> e = stack.remove(stack.size() - 1);
+                order.add(e);
+                if (e.left() != null) {
+                    stack.add(e.left());
+                }
+                if (e.right() != null) {
+                    stack.add(e.right());
+                }
+            }
+            Collections.reverse(order);
+            nodes = order.toArray(new Evaluator[order.size()]);
+            arity = new int[nodes.length];
+            for(int i = 0; i != nodes.length; ++i) {
+                arity[i] = nodes[i].left() == null ? 0 : nodes[i].right() == null ? 1 : 2;
+            }
+        }
+
+        @Override
+        public Object eval(C parserContext) {
+            Object[] values = new Object[nodes.length];
+            int sp = 0;
+            for(int i = 0; i != nodes.length; ++i) {
+                switch(arity[i]) {
+                case 0:
+                    values[sp++] = nodes[i].apply(parserContext, null, null);
+                    break;
+                case 1:
+                    values[sp - 1] = nodes[i].apply(parserContext, values[sp - 1], null);
+                    break;
+                default:
+                    --sp;
+                    values[sp - 1] = nodes[i].apply(parserContext, values[sp - 1], values[sp]);
+                    values[sp] = null;
+                }
+            }
+            return values[0];
+        }
+
+        @Override
+        Object apply(C parserContext, Object left, Object right) {
+            return eval(parserContext);
+        }
+    }
+}
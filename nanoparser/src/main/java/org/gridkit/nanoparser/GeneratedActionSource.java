@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.UnaryActionHandler;
+
+/**
+ * Base class for action sources generated from {@link ReflectionActionSource}
+ * subclasses by <code>nanoparser-apt</code> annotation processor.
+ * <br/>
+ * Generated subclass registers an action per annotated method, each action
+ * calls its method directly, so no reflection is involved. Methods with
+ * signature of single primitive type (e.g. <code>int plus(int, int)</code>)
+ * are registered as primitive handlers, see {@link IntBinaryMethod}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public abstract class GeneratedActionSource<C> implements SematicActionSource<C> {
+
+    private final List<TermAction<C>> terms = new ArrayList<TermAction<C>>();
+    private final List<Converter<C>> convertors = new ArrayList<Converter<C>>();
+    private final List<UnaryAction<C>> unaries = new ArrayList<UnaryAction<C>>();
+    private final List<BinaryAction<C>> binaries = new ArrayList<BinaryAction<C>>();
+
+    @Override
+    public Collection<TermAction<C>> enumTerms() {
+        return terms;
+    }
+
+    @Override
+    public Collection<UnaryAction<C>> enumUnaries() {
+        return unaries;
+    }
+
+    @Override
+    public Collection<BinaryAction<C>> enumBinaries() {
+        return binaries;
+    }
+
+    @Override
+    public Collection<Converter<C>> enumConverters() {
+        return convertors;
+    }
+
+    protected void addTerm(TermAction<C> action) {
+        for(TermAction<C> ta: terms) {
+            if (ta.opId().equals(action.opId()) && ta.returnType() == action.returnType()) {
+                throw new IllegalArgumentException("Ambiguous term '" + action.opId() + "' handler for type " + action.returnType().getSimpleName());
+            }
+        }
+        terms.add(action);
+    }
+
+    protected void addConverter(Converter<C> action) {
+        convertors.add(action);
+    }
+
+    protected void addUnary(UnaryAction<C> action) {
+        unaries.add(action);
+    }
+
+    protected void addBinary(BinaryAction<C> action) {
+        binaries.add(action);
+    }
+
+    /**
+     * @return argument for <code>@Convertible</code> parameter
+     */
+    protected static Collection<Class<?>> types(Class<?>... types) {
+        return Arrays.asList(types);
+    }
+
+    /**
+     * @return n-th of <code>count</code> @Source arguments, several @Source arguments receive sub tokens
+     */
+    protected static Token token(Token tkn, int n, int count) {
+        if (count == 1) {
+            return tkn;
+        }
+        else if (tkn instanceof MultiToken) {
+            Token[] tkns = ((MultiToken) tkn).tokens();
+            return n < tkns.length ? tkns[n] : null;
+        }
+        else {
+            return n == 0 ? tkn : null;
+        }
+    }
+
+    private static RuntimeException throwUnchecked(Throwable e) {
+        GeneratedActionSource.<RuntimeException>throwAny(e);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> void throwAny(Throwable e) throws E {
+        throw (E)e;
+    }
+
+    private static abstract class MethodAction {
+
+        final String id;
+        final String reference;
+
+        MethodAction(String id, String reference) {
+            this.id = id;
+            this.reference = reference;
+        }
+
+        public String opId() {
+            return id;
+        }
+
+        /**
+         * @return signature of method, e.g. <code>MyParser.plus(Integer,Integer)</code>
+         */
+        public Object implemetationReference() {
+            return reference;
+        }
+
+        @Override
+        public String toString() {
+            return id + " -> " + reference;
+        }
+    }
+
+    protected abstract class TermMethod extends MethodAction implements TermAction<C>, TermActionHandler<C, Object> {
+
+        private final Class<Object> returnType;
+
+        @SuppressWarnings("unchecked")
+        protected TermMethod(String id, Class<?> returnType, String reference) {
+            super(id, reference);
+            this.returnType = (Class<Object>) returnType;
+        }
+
+        protected abstract Object invoke(C parserContext, Token token) throws Throwable;
+
+        @Override
+        public Class<Object> returnType() {
+            return returnType;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R> TermActionHandler<C, R> handler() {
+            return (TermActionHandler<C, R>) (TermActionHandler<C, ?>) this;
+        }
+
+        @Override
+        public Object apply(C parserContext, Token token) {
+            try {
+                return ActionSupport.postProcess(invoke(parserContext, token), token);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    /**
+     * Unary operator or conversion.
+     */
+    protected abstract class UnaryMethod extends MethodAction implements UnaryAction<C>, Converter<C>, UnaryActionHandler<C, Object, Object> {
+
+        private final Class<Object> returnType;
+        private final Class<Object> argType;
+        private final Collection<Class<?>> convertibleArgTypes;
+
+        @SuppressWarnings("unchecked")
+        protected UnaryMethod(String id, Class<?> returnType, Class<?> argType, Collection<Class<?>> convertibleArgTypes, String reference) {
+            super(id, reference);
+            this.returnType = (Class<Object>) returnType;
+            this.argType = (Class<Object>) argType;
+            this.convertibleArgTypes = convertibleArgTypes;
+        }
+
+        protected abstract Object invoke(C parserContext, Token token, Object arg) throws Throwable;
+
+        @Override
+        public Class<Object> returnType() {
+            return returnType;
+        }
+
+        @Override
+        public Class<Object> argType() {
+            return argType;
+        }
+
+        @Override
+        public Class<?> inputType() {
+            return argType;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleArgTypes() {
+            return convertibleArgTypes;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R, A> UnaryActionHandler<C, R, A> handler() {
+            return (UnaryActionHandler<C, R, A>) (UnaryActionHandler<C, ?, ?>) this;
+        }
+
+        @Override
+        public Object apply(C parserContext, Token token, Object arg) {
+            try {
+                return ActionSupport.postProcess(invoke(parserContext, token, arg), token);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class BinaryMethod extends MethodAction implements BinaryAction<C>, BinaryActionHandler<C, Object, Object, Object> {
+
+        private final Class<Object> returnType;
+        private final Class<Object> leftType;
+        private final Class<Object> rightType;
+        private final Collection<Class<?>> convertibleLeftTypes;
+        private final Collection<Class<?>> convertibleRightTypes;
+
+        @SuppressWarnings("unchecked")
+        protected BinaryMethod(String id, Class<?> returnType, Class<?> leftType, Class<?> rightType, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, String reference) {
+            super(id, reference);
+            this.returnType = (Class<Object>) returnType;
+            this.leftType = (Class<Object>) leftType;
+            this.rightType = (Class<Object>) rightType;
+            this.convertibleLeftTypes = convertibleLeftTypes;
+            this.convertibleRightTypes = convertibleRightTypes;
+        }
+
+        protected abstract Object invoke(C parserContext, Token token, Object left, Object right) throws Throwable;
+
+        @Override
+        public Class<Object> returnType() {
+            return returnType;
+        }
+
+        @Override
+        public Class<Object> leftType() {
+            return leftType;
+        }
+
+        @Override
+        public Class<Object> rightType() {
+            return rightType;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleLeftTypes() {
+            return convertibleLeftTypes;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleRightTypes() {
+            return convertibleRightTypes;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R, A, B> BinaryActionHandler<C, R, A, B> handler() {
+            return (BinaryActionHandler<C, R, A, B>) (BinaryActionHandler<C, ?, ?, ?>) this;
+        }
+
+        @Override
+        public Object apply(C parserContext, Token token, Object left, Object right) {
+            try {
+                return ActionSupport.postProcess(invoke(parserContext, token, left, right), token);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class IntTermMethod extends PrimitiveActions.IntTerm<C> {
+
+        protected IntTermMethod(String id, String reference) {
+            super(id, reference);
+        }
+
+        protected abstract int invoke(C parserContext, Token token) throws Throwable;
+
+        @Override
+        public int applyInt(C parserContext, Token token) {
+            try {
+                return invoke(parserContext, token);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class IntUnaryMethod extends PrimitiveActions.IntUnary<C> {
+
+        protected IntUnaryMethod(String id, Collection<Class<?>> convertibleArgTypes, String reference) {
+            super(id, convertibleArgTypes, reference);
+        }
+
+        protected abstract int invoke(C parserContext, Token token, int arg) throws Throwable;
+
+        @Override
+        public int applyInt(C parserContext, Token token, int arg) {
+            try {
+                return invoke(parserContext, token, arg);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class IntBinaryMethod extends PrimitiveActions.IntBinary<C> {
+
+        protected IntBinaryMethod(String id, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, String reference) {
+            super(id, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        protected abstract int invoke(C parserContext, Token token, int left, int right) throws Throwable;
+
+        @Override
+        public int applyInt(C parserContext, Token token, int left, int right) {
+            try {
+                return invoke(parserContext, token, left, right);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class LongTermMethod extends PrimitiveActions.LongTerm<C> {
+
+        protected LongTermMethod(String id, String reference) {
+            super(id, reference);
+        }
+
+        protected abstract long invoke(C parserContext, Token token) throws Throwable;
+
+        @Override
+        public long applyLong(C parserContext, Token token) {
+            try {
+                return invoke(parserContext, token);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class LongUnaryMethod extends PrimitiveActions.LongUnary<C> {
+
+        protected LongUnaryMethod(String id, Collection<Class<?>> convertibleArgTypes, String reference) {
+            super(id, convertibleArgTypes, reference);
+        }
+
+        protected abstract long invoke(C parserContext, Token token, long arg) throws Throwable;
+
+        @Override
+        public long applyLong(C parserContext, Token token, long arg) {
+            try {
+                return invoke(parserContext, token, arg);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class LongBinaryMethod extends PrimitiveActions.LongBinary<C> {
+
+        protected LongBinaryMethod(String id, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, String reference) {
+            super(id, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        protected abstract long invoke(C parserContext, Token token, long left, long right) throws Throwable;
+
+        @Override
+        public long applyLong(C parserContext, Token token, long left, long right) {
+            try {
+                return invoke(parserContext, token, left, right);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class DoubleTermMethod extends PrimitiveActions.DoubleTerm<C> {
+
+        protected DoubleTermMethod(String id, String reference) {
+            super(id, reference);
+        }
+
+        protected abstract double invoke(C parserContext, Token token) throws Throwable;
+
+        @Override
+        public double applyDouble(C parserContext, Token token) {
+            try {
+                return invoke(parserContext, token);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class DoubleUnaryMethod extends PrimitiveActions.DoubleUnary<C> {
+
+        protected DoubleUnaryMethod(String id, Collection<Class<?>> convertibleArgTypes, String reference) {
+            super(id, convertibleArgTypes, reference);
+        }
+
+        protected abstract double invoke(C parserContext, Token token, double arg) throws Throwable;
+
+        @Override
+        public double applyDouble(C parserContext, Token token, double arg) {
+            try {
+                return invoke(parserContext, token, arg);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class DoubleBinaryMethod extends PrimitiveActions.DoubleBinary<C> {
+
+        protected DoubleBinaryMethod(String id, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, String reference) {
+            super(id, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        protected abstract double invoke(C parserContext, Token token, double left, double right) throws Throwable;
+
+        @Override
+        public double applyDouble(C parserContext, Token token, double left, double right) {
+            try {
+                return invoke(parserContext, token, left, right);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class BooleanTermMethod extends PrimitiveActions.BooleanTerm<C> {
+
+        protected BooleanTermMethod(String id, String reference) {
+            super(id, reference);
+        }
+
+        protected abstract boolean invoke(C parserContext, Token token) throws Throwable;
+
+        @Override
+        public boolean applyBoolean(C parserContext, Token token) {
+            try {
+                return invoke(parserContext, token);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class BooleanUnaryMethod extends PrimitiveActions.BooleanUnary<C> {
+
+        protected BooleanUnaryMethod(String id, Collection<Class<?>> convertibleArgTypes, String reference) {
+            super(id, convertibleArgTypes, reference);
+        }
+
+        protected abstract boolean invoke(C parserContext, Token token, boolean arg) throws Throwable;
+
+        @Override
+        public boolean applyBoolean(C parserContext, Token token, boolean arg) {
+            try {
+                return invoke(parserContext, token, arg);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+
+    protected abstract class BooleanBinaryMethod extends PrimitiveActions.BooleanBinary<C> {
+
+        protected BooleanBinaryMethod(String id, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, String reference) {
+            super(id, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        protected abstract boolean invoke(C parserContext, Token token, boolean left, boolean right) throws Throwable;
+
+        @Override
+        public boolean applyBoolean(C parserContext, Token token, boolean left, boolean right) {
+            try {
+                return invoke(parserContext, token, left, right);
+            } catch (Throwable e) {
+                throw throwUnchecked(e);
+            }
+        }
+    }
+}
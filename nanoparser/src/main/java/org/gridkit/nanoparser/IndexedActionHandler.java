@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.Collection;
+
+/**
+ * {@link SemanticActionHandler} with operator ids and types interned
+ * to dense indexes, lookup by indexes neither hashes nor allocates.
+ */
+interface IndexedActionHandler<C> extends SemanticActionHandler<C> {
+
+    /** Index of operator without actions or of type outside of type universe */
+    public static final int UNKNOWN = -1;
+
+    /** Index of <code>null</code> type, matching any type */
+    public static final int ANY_TYPE = 0;
+
+    /**
+     * @return types of all actions, including types of converted variants
+     */
+    public Collection<Class<?>> enumTypes();
+
+    public int opIndex(String opId);
+
+    public int typeIndex(Class<?> type);
+
+    /**
+     * Same as {@link #enumTerm(String, Class)}.
+     */
+    public TermActionHandler<?, ?>[] indexedTerms(int op, int rType);
+
+    /**
+     * Same as {@link #enumUnaries(String, Class, Class)} with any argument type.
+     */
+    public UnaryActionHandler<?, ?, ?>[] indexedUnaries(int op, int rType);
+
+    /**
+     * Same as {@link #enumBinaries(String, Class, Class, Class)} with any operand types.
+     */
+    public BinaryActionHandler<?, ?, ?, ?>[] indexedBinaries(int op, int rType);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.Arrays;
+
+/**
+ * Char trie over literal patterns of a scope. Single walk finds
+ * either first declared or longest literal matching input.
+ * <br/>
+ * Patterns which are not literals are ignored and should be tried
+ * individually in their declaration order.
+ */
+class LiteralTrie {
+
+    public static final int NO_MATCH = -1;
+
+    private final Node root = new Node();
+    private final boolean[] literals;
+    private final boolean longestMatch;
+
+    public LiteralTrie(TokenMatcher[][] patterns, boolean longestMatch) {
+        this.literals = new boolean[patterns.length];
+        this.longestMatch = longestMatch;
+        for(int i = 0; i != patterns.length; ++i) {
+            if (isLiteral(patterns[i])) {
+                literals[i] = true;
+                String text = ((StringMatcher) patterns[i][0]).text();
+                Node node = root;
+                for(int j = 0; j != text.length(); ++j) {
+                    node = node.child(text.charAt(j));
+                }
+                if (node.pattern == NO_MATCH) {
+                    // duplicate literal, first declared wins
+                    node.pattern = i;
+                }
+            }
+        }
+    }
+
+    static boolean isLiteral(TokenMatcher[] pattern) {
+        return pattern.length == 1 && pattern[0] instanceof StringMatcher;
+    }
+
+    public boolean hasLiterals() {
+        return root.keys.length > 0;
+    }
+
+    public boolean isLiteral(int n) {
+        return literals[n];
+    }
+
+    /**
+     * Literal patterns are matching only if their index is returned by this method.
+     *
+     * @return index of matching literal pattern or {@link #NO_MATCH}
+     */
+    public int lookup(CharSequence cs, int offset) {
+        int match = NO_MATCH;
+        Node node = root;
+        int len = cs.length();
+        for(int i = offset; i < len; ++i) {
+            node = node.get(cs.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.pattern != NO_MATCH) {
+                if (longestMatch || match == NO_MATCH || node.pattern < match) {
+                    match = node.pattern;
+                }
+            }
+        }
+        return match;
+    }
+
+    private static class Node {
+
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        int pattern = NO_MATCH;
+
+        Node get(char ch) {
+            int n = Arrays.binarySearch(keys, ch);
+            return n < 0 ? null : children[n];
+        }
+
+        Node child(char ch) {
+            int n = Arrays.binarySearch(keys, ch);
+            if (n >= 0) {
+                return children[n];
+            }
+            n = -n - 1;
+            char[] nkeys = new char[keys.length + 1];
+            Node[] nchildren = new Node[keys.length + 1];
+            System.arraycopy(keys, 0, nkeys, 0, n);
+            System.arraycopy(children, 0, nchildren, 0, n);
+            System.arraycopy(keys, n, nkeys, n + 1, keys.length - n);
+            System.arraycopy(children, n, nchildren, n + 1, keys.length - n);
+            nkeys[n] = ch;
+            nchildren[n] = new Node();
+            keys = nkeys;
+            children = nchildren;
+            return nchildren[n];
+        }
+    }
+}
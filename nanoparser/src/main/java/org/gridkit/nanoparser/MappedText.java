@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link CharSequence} views over memory mapped file.
+ * <br/>
+ * Single byte encodings (and UTF-8 files which happen to be pure ASCII)
+ * are read directly from mapped buffer. Other UTF-8 files are decoded
+ * on access using sparse index of char offsets.
+ * <br/>
+ * Views may be read concurrently, decoding cursor is only a hint
+ * and race on it may lose cached position but not corrupt result.
+ */
+class MappedText {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    public static CharSequence map(File file, Charset charset) throws IOException {
+        ByteBuffer buf = mapFile(file);
+        if (LATIN1.equals(charset)) {
+            return new ByteText(buf, false);
+        }
+        else if (ASCII.equals(charset)) {
+            return new ByteText(buf, true);
+        }
+        else if (UTF8.equals(charset)) {
+            return isAscii(buf) ? new ByteText(buf, false) : new Utf8Text(buf);
+        }
+        else {
+            // no random access decoding for other encodings
+            return charset.decode(buf);
+        }
+    }
+
+    private static ByteBuffer mapFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fc = raf.getChannel();
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to map: " + file.getPath() + " (" + size + " bytes)");
+            }
+            // mapping remains valid after channel is closed
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static boolean isAscii(ByteBuffer buf) {
+        int n = buf.limit();
+        for(int i = 0; i != n; ++i) {
+            if (buf.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One char per byte. Bytes above 127 are replaced with U+FFFD in ASCII mode.
+     */
+    static class ByteText implements CharSequence {
+
+        private final ByteBuffer buf;
+        private final boolean ascii;
+
+        ByteText(ByteBuffer buf, boolean ascii) {
+            this.buf = buf;
+            this.ascii = ascii;
+        }
+
+        @Override
+        public int length() {
+            return buf.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            byte b = buf.get(index);
+            if (b < 0 && ascii) {
+                return '\uFFFD';
+            }
+            return (char) (b & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("Range: " + start + ".." + end + ", length: " + length());
+            }
+            ByteBuffer slice = buf.duplicate();
+            slice.position(start);
+            slice.limit(end);
+            return new ByteText(slice.slice(), ascii);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length()];
+            for(int i = 0; i != chars.length; ++i) {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Decodes UTF-8 on access. Byte offset of every {@link #BLOCK}th char is
+     * kept in index, sequential access continues from last decoded position.
+     * Malformed sequences are decoded as U+FFFD, one per byte.
+     */
+    static class Utf8Text implements CharSequence {
+
+        private static final int BLOCK_SHIFT = 6;
+        private static final int BLOCK = 1 << BLOCK_SHIFT;
+
+        private final ByteBuffer buf;
+        private final int length;
+        /**
+         * Byte offset of code point containing char n * {@link #BLOCK},
+         * negative (-offset - 1) if that char is second half of surrogate pair.
+         */
+        private final int[] index;
+
+        /**
+         * Decoding cursor, char index in upper and byte offset in lower 32 bits.
+         * Single field, so concurrent readers never see char and offset of different positions.
+         */
+        private volatile long cursor;
+
+        Utf8Text(ByteBuffer buf) {
+            this.buf = buf;
+            int n = buf.limit();
+            int[] idx = new int[16];
+            int blocks = 0;
+            int chars = 0;
+            int p = 0;
+            while(p < n) {
+                int cp = decode(buf, p);
+                int cl = (cp & 0xFFFFFF) >= 0x10000 ? 2 : 1;
+                if (((chars + cl - 1) >> BLOCK_SHIFT) == blocks) {
+                    if (blocks == idx.length) {
+                        idx = Arrays.copyOf(idx, 2 * blocks);
+                    }
+                    // block starts either at this char or in second half of pair
+                    idx[blocks++] = (chars & (BLOCK - 1)) == 0 ? p : -p - 1;
+                }
+                chars += cl;
+                p += cp >>> 24;
+            }
+            this.length = chars;
+            this.index = Arrays.copyOf(idx, blocks);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+            }
+            int c;
+            int p;
+            long cur = cursor;
+            int cursorChar = (int) (cur >> 32);
+            if (index >= cursorChar && (index >> BLOCK_SHIFT) == (cursorChar >> BLOCK_SHIFT)) {
+                c = cursorChar;
+                p = (int) cur;
+            }
+            else {
+                int ip = this.index[index >> BLOCK_SHIFT];
+                if (ip < 0) {
+                    // block starts with low surrogate
+                    c = (index & ~(BLOCK - 1)) - 1;
+                    p = -ip - 1;
+                }
+                else {
+                    c = index & ~(BLOCK - 1);
+                    p = ip;
+                }
+            }
+            while(true) {
+                int cp = decode(buf, p);
+                int ch = cp & 0xFFFFFF;
+                if (ch >= 0x10000) {
+                    if (c == index) {
+                        remember(c, p);
+                        return highSurrogate(ch);
+                    }
+                    else if (c + 1 == index) {
+                        remember(c, p);
+                        return lowSurrogate(ch);
+                    }
+                    c += 2;
+                }
+                else {
+                    if (c == index) {
+                        remember(c, p);
+                        return (char) ch;
+                    }
+                    c += 1;
+                }
+                p += cp >>> 24;
+            }
+        }
+
+        private void remember(int c, int p) {
+            cursor = ((long) c << 32) | (p & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Range: " + start + ".." + end + ", length: " + length);
+            }
+            StringBuilder sb = new StringBuilder(end - start);
+            for(int i = start; i != end; ++i) {
+                sb.append(charAt(i));
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+
+        private static char highSurrogate(int cp) {
+            return (char) (((cp - 0x10000) >>> 10) + 0xD800);
+        }
+
+        private static char lowSurrogate(int cp) {
+            return (char) (((cp - 0x10000) & 0x3FF) + 0xDC00);
+        }
+
+        /**
+         * @return code point in lower 24 bits, sequence length in bytes in upper 8 bits
+         */
+        static int decode(ByteBuffer buf, int p) {
+            int b0 = buf.get(p) & 0xFF;
+            if (b0 < 0x80) {
+                return b0 | (1 << 24);
+            }
+            int len;
+            int cp;
+            int min;
+            if (b0 >= 0xC2 && b0 < 0xE0) {
+                len = 2;
+                cp = b0 & 0x1F;
+                min = 0x80;
+            }
+            else if (b0 >= 0xE0 && b0 < 0xF0) {
+                len = 3;
+                cp = b0 & 0x0F;
+                min = 0x800;
+            }
+            else if (b0 >= 0xF0 && b0 < 0xF5) {
+                len = 4;
+                cp = b0 & 0x07;
+                min = 0x10000;
+            }
+            else {
+                return malformed();
+            }
+            if (p + len > buf.limit()) {
+                return malformed();
+            }
+            for(int i = 1; i != len; ++i) {
+                int b = buf.get(p + i) & 0xFF;
+                if ((b & 0xC0) != 0x80) {
+                    return malformed();
+                }
+                cp = (cp << 6) | (b & 0x3F);
+            }
+            if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp < 0xE000)) {
+                return malformed();
+            }
+            return cp | (len << 24);
+        }
+
+        private static int malformed() {
+            return 0xFFFD | (1 << 24);
+        }
+    }
+}
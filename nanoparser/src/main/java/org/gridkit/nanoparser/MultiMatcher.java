@@ -23,6 +23,10 @@ class MultiMatcher implements TokenMatcher {
         return new MultiMatcher(mm);
     }
 
+    TokenMatcher[] matchers() {
+        return matchers;
+    }
+
     @Override
     public CharSet firstCharacter() {
         return firstChar;
@@ -2,27 +2,49 @@ package org.gridkit.nanoparser;
 
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.gridkit.nanoparser.SematicActionSource.BinaryAction;
 import org.gridkit.nanoparser.SematicActionSource.Converter;
 import org.gridkit.nanoparser.SematicActionSource.TermAction;
 import org.gridkit.nanoparser.SematicActionSource.UnaryAction;
 
-public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
+public class MultiSourceSemanticHandler<C> implements IndexedActionHandler<C> {
 
-    private final SematicActionSource<C>[] actionSources;
-    private final Map<TermKey, TermActionHandler<?, ?>[]> termHandlerCache = new HashMap<TermKey, TermActionHandler<?,?>[]>();
-    private final Map<UnaryKey, UnaryActionHandler<?, ?, ?>[]> unaryHandlerCache = new HashMap<UnaryKey, UnaryActionHandler<?,?,?>[]>();
-    private final Map<BinaryKey, BinaryActionHandler<?, ?, ?, ?>[]> binaryHandlerCache = new HashMap<BinaryKey, BinaryActionHandler<?,?,?,?>[]>();
-
-    private final Map<String, List<UnaryActionHandler<?, ?, ?>>> unaryUniverse = new HashMap<String, List<UnaryActionHandler<?,?,?>>>();
-    private final Map<String, List<BinaryActionHandler<?, ?, ?, ?>>> binaryUniverse = new HashMap<String, List<BinaryActionHandler<?,?,?,?>>>();
+    private static final TermActionHandler<?, ?>[] NO_TERMS = new TermActionHandler<?, ?>[0];
+    private static final UnaryActionHandler<?, ?, ?>[] NO_UNARIES = new UnaryActionHandler<?, ?, ?>[0];
+    private static final BinaryActionHandler<?, ?, ?, ?>[] NO_BINARIES = new BinaryActionHandler<?, ?, ?, ?>[0];
 
+    private final SematicActionSource<C>[] actionSources;
+    // lookup caches are populated concurrently, racing threads would compute same value
+    private final Map<TermKey, TermActionHandler<?, ?>[]> termHandlerCache = new ConcurrentHashMap<TermKey, TermActionHandler<?,?>[]>();
+    private final Map<UnaryKey, UnaryActionHandler<?, ?, ?>[]> unaryHandlerCache = new ConcurrentHashMap<UnaryKey, UnaryActionHandler<?,?,?>[]>();
+    private final Map<BinaryKey, BinaryActionHandler<?, ?, ?, ?>[]> binaryHandlerCache = new ConcurrentHashMap<BinaryKey, BinaryActionHandler<?,?,?,?>[]>();
+
+    // actions per operator, converted variants of action are generated on first lookup which may use them
+    private final List<Converter<C>> converters = new ArrayList<Converter<C>>();
+    private final Map<String, List<UnaryVariants>> unaryUniverse = new HashMap<String, List<UnaryVariants>>();
+    private final Map<String, List<BinaryVariants>> binaryUniverse = new HashMap<String, List<BinaryVariants>>();
+
+    // operator ids and types are interned once all actions are known
+    private final Map<String, Integer> opIndex = new HashMap<String, Integer>();
+    private final Map<Class<?>, Integer> typeIndex = new HashMap<Class<?>, Integer>();
+    private String[] ops;
+    /** Element at {@link #ANY_TYPE} is <code>null</code> */
+    private Class<?>[] types;
+    // dense tables indexed by op * types.length + rType, populated lazily
+    private AtomicReferenceArray<TermActionHandler<?, ?>[]> termTable;
+    private AtomicReferenceArray<UnaryActionHandler<?, ?, ?>[]> unaryTable;
+    private AtomicReferenceArray<BinaryActionHandler<?, ?, ?, ?>[]> binaryTable;
 
     public MultiSourceSemanticHandler(SematicActionSource<C>... actionSources) {
         this.actionSources = actionSources;
@@ -30,55 +52,144 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
     }
 
     private void init() {
-        List<Converter<C>> converters = new ArrayList<SematicActionSource.Converter<C>>();
         for(SematicActionSource<C> sas: actionSources) {
             converters.addAll(sas.enumConverters());
         }
-        initUniaryActions(converters);
-        initBinaryActions(converters);
-    }
-
-    private void initUniaryActions(List<Converter<C>> converters) {
+        // chains follow direct converters, so single step conversion is found first
+        converters.addAll(conversionChains(new ArrayList<Converter<C>>(converters)));
         for(SematicActionSource<C> sas: actionSources) {
             for(UnaryAction<C> ua: sas.enumUnaries()) {
-                addAction(ua.opId(), ua.handler());
+                List<UnaryVariants> list = unaryUniverse.get(ua.opId());
+                if (list == null) {
+                    unaryUniverse.put(ua.opId(), list = new ArrayList<UnaryVariants>());
+                }
+                list.add(new UnaryVariants(ua));
             }
         }
-
         for(SematicActionSource<C> sas: actionSources) {
-            for(UnaryAction<C> ua: sas.enumUnaries()) {
-                processActionVariants(converters, ua);
+            for(BinaryAction<C> ba: sas.enumBinaries()) {
+                List<BinaryVariants> list = binaryUniverse.get(ba.opId());
+                if (list == null) {
+                    binaryUniverse.put(ba.opId(), list = new ArrayList<BinaryVariants>());
+                }
+                list.add(new BinaryVariants(ba));
             }
         }
+        initIndex();
     }
 
-    private void initBinaryActions(List<Converter<C>> converters) {
-        for(SematicActionSource<C> sas: actionSources) {
-            for(BinaryAction<C> ua: sas.enumBinaries()) {
-                addAction(ua.opId(), ua.handler());
+    /**
+     * Finds shortest conversion path from input type of each converter to every
+     * type reachable through more than one converter. Each path is fused into
+     * single converter, applying its steps in one call.
+     */
+    private List<Converter<C>> conversionChains(List<Converter<C>> direct) {
+        List<Converter<C>> chains = new ArrayList<Converter<C>>();
+        Set<Class<?>> sources = new LinkedHashSet<Class<?>>();
+        for(Converter<C> c: direct) {
+            sources.add(c.inputType());
+        }
+        for(Class<?> source: sources) {
+            // breadth first search, so first path found to a type is shortest one
+            Map<Class<?>, List<Converter<C>>> paths = new HashMap<Class<?>, List<Converter<C>>>();
+            paths.put(source, Collections.<Converter<C>>emptyList());
+            List<Class<?>> front = Collections.<Class<?>>singletonList(source);
+            while(!front.isEmpty()) {
+                List<Class<?>> next = new ArrayList<Class<?>>();
+                for(Class<?> t: front) {
+                    for(Converter<C> c: direct) {
+                        if (isAssignable(c.inputType(), t) && !paths.containsKey(c.returnType())) {
+                            List<Converter<C>> path = new ArrayList<Converter<C>>(paths.get(t));
+                            path.add(c);
+                            paths.put(c.returnType(), path);
+                            next.add(c.returnType());
+                            if (path.size() > 1) {
+                                chains.add(new ConverterChain<C>(source, path));
+                            }
+                        }
+                    }
+                }
+                front = next;
             }
         }
+        return chains;
+    }
 
+    private void initIndex() {
+        List<String> opList = new ArrayList<String>();
+        List<Class<?>> typeList = new ArrayList<Class<?>>();
+        typeList.add(null);
+        internType(typeList, String.class);
         for(SematicActionSource<C> sas: actionSources) {
-            for(BinaryAction<C> ua: sas.enumBinaries()) {
-                processActionVariants(converters, ua);
+            for(TermAction<C> ta: sas.enumTerms()) {
+                internOp(opList, ta.opId());
+                internType(typeList, ta.returnType());
+            }
+        }
+        // converted variants only use converter and array element types
+        for(Converter<C> c: converters) {
+            internType(typeList, c.inputType());
+            internType(typeList, c.returnType());
+            internType(typeList, c.handler().argType());
+        }
+        for(String op: unaryUniverse.keySet()) {
+            internOp(opList, op);
+            for(UnaryVariants v: unaryUniverse.get(op)) {
+                internType(typeList, v.action.returnType());
+                internActionType(typeList, v.action.argType());
             }
         }
+        for(String op: binaryUniverse.keySet()) {
+            internOp(opList, op);
+            for(BinaryVariants v: binaryUniverse.get(op)) {
+                internType(typeList, v.action.returnType());
+                internActionType(typeList, v.action.leftType());
+                internActionType(typeList, v.action.rightType());
+            }
+        }
+        ops = opList.toArray(new String[opList.size()]);
+        types = typeList.toArray(new Class<?>[typeList.size()]);
+        int size = ops.length * types.length;
+        termTable = new AtomicReferenceArray<TermActionHandler<?,?>[]>(size);
+        unaryTable = new AtomicReferenceArray<UnaryActionHandler<?,?,?>[]>(size);
+        binaryTable = new AtomicReferenceArray<BinaryActionHandler<?,?,?,?>[]>(size);
+    }
+
+    private void internOp(List<String> opList, String opId) {
+        if (!opIndex.containsKey(opId)) {
+            opIndex.put(opId, opList.size());
+            opList.add(opId);
+        }
+    }
+
+    private void internActionType(List<Class<?>> typeList, Class<?> type) {
+        internType(typeList, type);
+        if (type.isArray()) {
+            Class<?> ct = type.getComponentType();
+            internType(typeList, ct.isPrimitive() ? box(ct) : ct);
+        }
     }
 
-    private void processActionVariants(List<Converter<C>> converters, UnaryAction<C> ua) {
+    private void internType(List<Class<?>> typeList, Class<?> type) {
+        if (!typeIndex.containsKey(type)) {
+            typeIndex.put(type, typeList.size());
+            typeList.add(type);
+        }
+    }
+
+    private void processActionVariants(List<Converter<C>> converters, UnaryAction<C> ua, List<UnaryActionHandler<?, ?, ?>> variants) {
         if (ua.convertibleArgTypes() == null) {
             // default convertible
             for(Converter<C> c: converters) {
                 if (isAssignable(ua.argType(), c.returnType())) {
-                    addAction(ua.opId(), convertedHandler(ua, c));
+                    variants.add(convertedHandler(ua, c));
                 }
                 else if (isAssignableElement(ua.argType(), c.returnType())) {
-                    addAction(ua.opId(), convertedHandler(ua, arrayConverter(ua.argType(), c)));
+                    variants.add(convertedHandler(ua, arrayConverter(ua.argType(), c)));
                 }
             }
             if (ua.argType().isArray()) {
-                addAction(ua.opId(), convertedHandler(ua, arrayConverter(ua.argType())));
+                variants.add(convertedHandler(ua, arrayConverter(ua.argType())));
             }
         }
         else {
@@ -88,37 +199,37 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
                     // ignoring default type binding
                     for(Converter<C> cc: converters) {
                         if (isAssignable(ua.argType(), cc.returnType()) && isAssignable(c,cc.inputType())) {
-                            addAction(ua.opId(), convertedHandler(ua, cc));
+                            variants.add(convertedHandler(ua, cc));
                             continue typeCycle;
                         }
                         else if (isAssignableElement(ua.argType(), cc.returnType()) && isAssignable(c,cc.inputType())) {
-                            addAction(ua.opId(), convertedHandler(ua, arrayConverter(ua.argType(), cc)));
+                            variants.add(convertedHandler(ua, arrayConverter(ua.argType(), cc)));
                         }
                     }
                     if (ua.argType().isArray() && ua.argType().getComponentType().isAssignableFrom(c)) {
                         // auto array converter
-                        addAction(ua.opId(), convertedHandler(ua, arrayConverter(ua.argType())));
+                        variants.add(convertedHandler(ua, arrayConverter(ua.argType())));
                     }
                 }
             }
         }
     }
 
-    private void processActionVariants(List<Converter<C>> converters, BinaryAction<C> ba) {
-        processActionVariants(converters, ba, null);
+    private void processActionVariants(List<Converter<C>> converters, BinaryAction<C> ba, List<BinaryActionHandler<?, ?, ?, ?>> variants) {
+        processActionVariants(converters, ba, null, variants);
 
         if (ba.convertibleLeftTypes() == null) {
             // default convertible
             for(Converter<C> c: converters) {
                 if (isAssignable(ba.leftType(), c.returnType())) {
-                    processActionVariants(converters, ba, c);
+                    processActionVariants(converters, ba, c, variants);
                 }
                 else if (isAssignableElement(ba.leftType(), c.returnType())) {
-                    processActionVariants(converters, ba, arrayConverter(ba.leftType(), c));
+                    processActionVariants(converters, ba, arrayConverter(ba.leftType(), c), variants);
                 }
             }
             if (ba.leftType().isArray()) {
-                processActionVariants(converters, ba, arrayConverter(ba.leftType()));
+                processActionVariants(converters, ba, arrayConverter(ba.leftType()), variants);
             }
         }
         else {
@@ -128,39 +239,39 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
                     // ignoring default type binding
                     for(Converter<C> cc: converters) {
                         if (isAssignable(ba.leftType(), cc.returnType()) && isAssignable(c, cc.inputType())) {
-                            processActionVariants(converters, ba, cc);
+                            processActionVariants(converters, ba, cc, variants);
                             continue typeCycle;
                         }
                         else if (isAssignableElement(ba.leftType(), cc.returnType()) && isAssignable(c, cc.inputType())) {
-                            processActionVariants(converters, ba, arrayConverter(ba.leftType(), cc));
+                            processActionVariants(converters, ba, arrayConverter(ba.leftType(), cc), variants);
                             continue typeCycle;
                         }
                     }
                     if (ba.leftType().isArray() && ba.leftType().getComponentType().isAssignableFrom(c)) {
                         // auto array converter
-                        processActionVariants(converters, ba, arrayConverter(ba.leftType()));
+                        processActionVariants(converters, ba, arrayConverter(ba.leftType()), variants);
                     }
                 }
             }
         }
     }
 
-    private void processActionVariants(List<Converter<C>> converters, BinaryAction<C> ba, Converter<C> ca) {
+    private void processActionVariants(List<Converter<C>> converters, BinaryAction<C> ba, Converter<C> ca, List<BinaryActionHandler<?, ?, ?, ?>> variants) {
         if (ca != null) {
-            addAction(ba.opId(), convertedHandler(ba, ca, null));
+            variants.add(convertedHandler(ba, ca, null));
         }
         if (ba.convertibleRightTypes() == null) {
             // default convertible
             for(Converter<C> c: converters) {
                 if (isAssignable(ba.rightType(), c.returnType())) {
-                    addAction(ba.opId(), convertedHandler(ba, ca, c));
+                    variants.add(convertedHandler(ba, ca, c));
                 }
                 else if (isAssignableElement(ba.rightType(), c.returnType())) {
-                    addAction(ba.opId(), convertedHandler(ba, ca, arrayConverter(ba.rightType(), c)));
+                    variants.add(convertedHandler(ba, ca, arrayConverter(ba.rightType(), c)));
                 }
             }
             if (ba.rightType().isArray()) {
-                addAction(ba.opId(), convertedHandler(ba, ca, arrayConverter(ba.rightType())));
+                variants.add(convertedHandler(ba, ca, arrayConverter(ba.rightType())));
             }
         }
         else {
@@ -170,17 +281,17 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
                     // ignoring default type binding
                     for(Converter<C> cc: converters) {
                         if (isAssignable(ba.rightType(), cc.returnType()) && isAssignable(c, cc.inputType())) {
-                            addAction(ba.opId(), convertedHandler(ba, ca, cc));
+                            variants.add(convertedHandler(ba, ca, cc));
                             continue typeCycle;
                         }
                         else if (isAssignableElement(ba.rightType(), cc.returnType()) && isAssignable(c, cc.inputType())) {
-                            addAction(ba.opId(), convertedHandler(ba, ca, arrayConverter(ba.rightType(), cc)));
+                            variants.add(convertedHandler(ba, ca, arrayConverter(ba.rightType(), cc)));
                             continue typeCycle;
                         }
                     }
                     if (ba.rightType().isArray() && ba.rightType().getComponentType().isAssignableFrom(c)) {
                         // auto array converter
-                        addAction(ba.opId(), convertedHandler(ba, ca, arrayConverter(ba.rightType())));
+                        variants.add(convertedHandler(ba, ca, arrayConverter(ba.rightType())));
                     }
                 }
             }
@@ -207,26 +318,74 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
         return new BinaryConvertedHandler(ba.opId(), ba.handler(), ca == null ? null : ca.handler(), cb == null ? null : cb.handler());
     }
 
-    private void addAction(String opId, UnaryActionHandler<C, ?, ?> handler) {
-        List<UnaryActionHandler<?, ?, ?>> list = unaryUniverse.get(opId);
-        if (list == null) {
-            unaryUniverse.put(opId, list = new ArrayList<UnaryActionHandler<?,?,?>>());
+    @Override
+    public Collection<Class<?>> enumTypes() {
+        return Arrays.asList(types).subList(ANY_TYPE + 1, types.length);
+    }
+
+    @Override
+    public int opIndex(String opId) {
+        Integer n = opIndex.get(opId);
+        return n == null ? UNKNOWN : n;
+    }
+
+    @Override
+    public int typeIndex(Class<?> type) {
+        if (type == null) {
+            return ANY_TYPE;
         }
+        Integer n = typeIndex.get(type);
+        return n == null ? UNKNOWN : n;
+    }
 
-        list.add(handler);
+    @Override
+    public TermActionHandler<?, ?>[] indexedTerms(int op, int rType) {
+        if (op == UNKNOWN) {
+            return NO_TERMS;
+        }
+        int n = op * types.length + rType;
+        TermActionHandler<?, ?>[] result = termTable.get(n);
+        if (result == null) {
+            result = initTermEnum(ops[op], types[rType]);
+            termTable.set(n, result);
+        }
+        return result;
     }
 
-    private void addAction(String opId, BinaryActionHandler<C, ?, ?, ?> handler) {
-        List<BinaryActionHandler<?, ?, ?, ?>> list = binaryUniverse.get(opId);
-        if (list == null) {
-            binaryUniverse.put(opId, list = new ArrayList<BinaryActionHandler<?,?,?,?>>());
+    @Override
+    public UnaryActionHandler<?, ?, ?>[] indexedUnaries(int op, int rType) {
+        if (op == UNKNOWN) {
+            return NO_UNARIES;
+        }
+        int n = op * types.length + rType;
+        UnaryActionHandler<?, ?, ?>[] result = unaryTable.get(n);
+        if (result == null) {
+            result = initUnaryEnum(ops[op], types[rType], null);
+            unaryTable.set(n, result);
         }
+        return result;
+    }
 
-        list.add(handler);
+    @Override
+    public BinaryActionHandler<?, ?, ?, ?>[] indexedBinaries(int op, int rType) {
+        if (op == UNKNOWN) {
+            return NO_BINARIES;
+        }
+        int n = op * types.length + rType;
+        BinaryActionHandler<?, ?, ?, ?>[] result = binaryTable.get(n);
+        if (result == null) {
+            result = initBinaryEnum(ops[op], types[rType], null, null);
+            binaryTable.set(n, result);
+        }
+        return result;
     }
 
     @Override
     public TermActionHandler<?, ?>[] enumTerm(String opId, Class<?> rType) {
+        int rt = typeIndex(rType);
+        if (opId != null && rt != UNKNOWN) {
+            return indexedTerms(opIndex(opId), rt);
+        }
         TermKey tkey = new TermKey(opId, rType);
         TermActionHandler<?, ?>[] result = termHandlerCache.get(tkey);
         if (result == null) {
@@ -238,6 +397,10 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
 
     @Override
     public UnaryActionHandler<?, ?, ?>[] enumUnaries(String opId, Class<?> rType, Class<?> argType) {
+        int rt = typeIndex(rType);
+        if (opId != null && argType == null && rt != UNKNOWN) {
+            return indexedUnaries(opIndex(opId), rt);
+        }
         UnaryKey ukey = new UnaryKey(opId, rType, argType);
         UnaryActionHandler<?, ?, ?>[] result = unaryHandlerCache.get(ukey);
         if (result == null) {
@@ -249,6 +412,10 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
 
     @Override
     public BinaryActionHandler<?, ?, ?, ?>[] enumBinaries(String opId,  Class<?> rType, Class<?> leftType, Class<?> rightType) {
+        int rt = typeIndex(rType);
+        if (opId != null && leftType == null && rightType == null && rt != UNKNOWN) {
+            return indexedBinaries(opIndex(opId), rt);
+        }
         BinaryKey bkey = new BinaryKey(opId, rType, leftType, rightType);
         BinaryActionHandler<?, ?, ?, ?>[] result = binaryHandlerCache.get(bkey);
         if (result == null) {
@@ -274,10 +441,14 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
         return result.toArray(new TermActionHandler<?, ?>[0]);
     }
 
+    /**
+     * Converted variants are only generated for actions with matching return type.
+     * Order of handlers is same as if all variants were generated upfront.
+     */
     protected UnaryActionHandler<?, ?, ?>[] initUnaryEnum(String opId, Class<?> rType, Class<?> argType) {
         List<UnaryActionHandler<?, ?, ?>> result = new ArrayList<UnaryActionHandler<?, ?, ?>>();
 
-        Collection<List<UnaryActionHandler<?, ?, ?>>> searchSet;
+        Collection<List<UnaryVariants>> searchSet;
         if (opId == null) {
             searchSet = unaryUniverse.values();
         }
@@ -288,11 +459,17 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
             searchSet = Collections.emptySet();
         }
 
-        for(List<UnaryActionHandler<?, ?, ?>> set: searchSet) {
-            for(UnaryActionHandler<?, ?, ?> h: set) {
-                if (rType == null || rType.isAssignableFrom(h.returnType())) {
-                    if (argType == null || h.argType().isAssignableFrom(argType)) {
-                        result.add(h);
+        for(List<UnaryVariants> set: searchSet) {
+            // plain actions precede converted variants
+            for(UnaryVariants v: set) {
+                if (v.matches(rType)) {
+                    addMatching(result, v.action.handler(), argType);
+                }
+            }
+            for(UnaryVariants v: set) {
+                if (v.matches(rType)) {
+                    for(UnaryActionHandler<?, ?, ?> h: v.variants()) {
+                        addMatching(result, h, argType);
                     }
                 }
             }
@@ -301,10 +478,19 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
         return result.toArray(new UnaryActionHandler<?, ?, ?>[0]);
     }
 
+    private void addMatching(List<UnaryActionHandler<?, ?, ?>> result, UnaryActionHandler<?, ?, ?> h, Class<?> argType) {
+        if (argType == null || h.argType().isAssignableFrom(argType)) {
+            result.add(h);
+        }
+    }
+
+    /**
+     * See {@link #initUnaryEnum(String, Class, Class)}.
+     */
     protected BinaryActionHandler<?, ?, ?, ?>[] initBinaryEnum(String opId, Class<?> rType, Class<?> leftType, Class<?> rightType) {
         List<BinaryActionHandler<?, ?, ?, ?>> result = new ArrayList<BinaryActionHandler<?, ?, ?, ?>>();
 
-        Collection<List<BinaryActionHandler<?, ?, ?, ?>>> searchSet;
+        Collection<List<BinaryVariants>> searchSet;
         if (opId == null) {
             searchSet = binaryUniverse.values();
         }
@@ -315,14 +501,17 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
             searchSet = Collections.emptySet();
         }
 
-
-        for(List<BinaryActionHandler<?, ?, ?, ?>> set: searchSet) {
-            for(BinaryActionHandler<?, ?, ?, ?> h: set) {
-                if (rType == null || rType.isAssignableFrom(h.returnType())) {
-                    if (leftType == null || h.leftType().isAssignableFrom(leftType)) {
-                        if (rightType == null || h.returnType().isAssignableFrom(rightType)) {
-                            result.add(h);
-                        }
+        for(List<BinaryVariants> set: searchSet) {
+            // plain actions precede converted variants
+            for(BinaryVariants v: set) {
+                if (v.matches(rType)) {
+                    addMatching(result, v.action.handler(), leftType, rightType);
+                }
+            }
+            for(BinaryVariants v: set) {
+                if (v.matches(rType)) {
+                    for(BinaryActionHandler<?, ?, ?, ?> h: v.variants()) {
+                        addMatching(result, h, leftType, rightType);
                     }
                 }
             }
@@ -331,6 +520,75 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
         return result.toArray(new BinaryActionHandler<?, ?, ?, ?>[0]);
     }
 
+    private void addMatching(List<BinaryActionHandler<?, ?, ?, ?>> result, BinaryActionHandler<?, ?, ?, ?> h, Class<?> leftType, Class<?> rightType) {
+        if (leftType == null || h.leftType().isAssignableFrom(leftType)) {
+            if (rightType == null || h.returnType().isAssignableFrom(rightType)) {
+                result.add(h);
+            }
+        }
+    }
+
+    /**
+     * Unary action with its converted variants. Variants keep return type
+     * of action, so they are generated only if that type is requested.
+     */
+    private class UnaryVariants {
+
+        final UnaryAction<C> action;
+        final Class<?> returnType;
+        // racing threads would generate equivalent lists
+        private volatile List<UnaryActionHandler<?, ?, ?>> variants;
+
+        public UnaryVariants(UnaryAction<C> action) {
+            this.action = action;
+            this.returnType = action.handler().returnType();
+        }
+
+        boolean matches(Class<?> rType) {
+            return rType == null || rType.isAssignableFrom(returnType);
+        }
+
+        List<UnaryActionHandler<?, ?, ?>> variants() {
+            List<UnaryActionHandler<?, ?, ?>> list = variants;
+            if (list == null) {
+                list = new ArrayList<UnaryActionHandler<?, ?, ?>>();
+                processActionVariants(converters, action, list);
+                variants = list;
+            }
+            return list;
+        }
+    }
+
+    /**
+     * Binary action with its converted variants, see {@link UnaryVariants}.
+     */
+    private class BinaryVariants {
+
+        final BinaryAction<C> action;
+        final Class<?> returnType;
+        // racing threads would generate equivalent lists
+        private volatile List<BinaryActionHandler<?, ?, ?, ?>> variants;
+
+        public BinaryVariants(BinaryAction<C> action) {
+            this.action = action;
+            this.returnType = action.handler().returnType();
+        }
+
+        boolean matches(Class<?> rType) {
+            return rType == null || rType.isAssignableFrom(returnType);
+        }
+
+        List<BinaryActionHandler<?, ?, ?, ?>> variants() {
+            List<BinaryActionHandler<?, ?, ?, ?>> list = variants;
+            if (list == null) {
+                list = new ArrayList<BinaryActionHandler<?, ?, ?, ?>>();
+                processActionVariants(converters, action, list);
+                variants = list;
+            }
+            return list;
+        }
+    }
+
     private static class TermKey {
 
         final String opId;
@@ -548,6 +806,74 @@ public class MultiSourceSemanticHandler<C> implements SemanticActionHandler<C> {
         }
     }
 
+    /**
+     * Multi step conversion fused into single converter.
+     */
+    @SuppressWarnings("rawtypes")
+    private static class ConverterChain<C> implements UnaryActionHandler<C, Object, Object>, Converter<C> {
+
+        private final Class<?> input;
+        private final Class<?> result;
+        private final UnaryActionHandler[] steps;
+
+        public ConverterChain(Class<?> input, List<Converter<C>> path) {
+            this.input = input;
+            this.result = path.get(path.size() - 1).returnType();
+            this.steps = new UnaryActionHandler[path.size()];
+            for(int i = 0; i != steps.length; ++i) {
+                steps[i] = path.get(i).handler();
+            }
+        }
+
+        @Override
+        public Object implemetationReference() {
+            return null;
+        }
+
+        @Override
+        public Class<?> inputType() {
+            return input;
+        }
+
+        @Override
+        @SuppressWarnings({ "unchecked" })
+        public <R, A> UnaryActionHandler<C, R, A> handler() {
+            return (UnaryActionHandler<C, R, A>) (UnaryActionHandler) this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Class<Object> returnType() {
+            return (Class<Object>) result;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Class<Object> argType() {
+            return (Class<Object>) input;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object apply(C parserContext, Token token, Object arg) {
+            Object x = arg;
+            for(UnaryActionHandler step: steps) {
+                x = step.apply(parserContext, token, x);
+            }
+            return x;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(input.getSimpleName());
+            for(UnaryActionHandler step: steps) {
+                sb.append(" -> ").append(step.returnType().getSimpleName());
+            }
+            return sb.toString();
+        }
+    }
+
     @SuppressWarnings("rawtypes")
     private static class UnaryConvertedHandler<C, R, A> implements UnaryActionHandler<C, R, A> {
 
@@ -17,29 +17,60 @@ package org.gridkit.nanoparser;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.gridkit.nanoparser.NanoGrammar.OpType;
 import org.gridkit.nanoparser.NanoGrammar.OperatorInfo;
 import org.gridkit.nanoparser.NanoGrammar.ScopeBuilder;
 import org.gridkit.nanoparser.NanoGrammar.SyntaticScope;
+import org.gridkit.nanoparser.SemanticActionHandler.ActionHandler;
 import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongUnaryHandler;
 import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
 import org.gridkit.nanoparser.SemanticActionHandler.UnaryActionHandler;
 import org.gridkit.nanoparser.SemanticActionSolver.TypeSet;
 
+/**
+ * Parser is thread safe, single instance could be shared between threads
+ * as long as semantic actions are thread safe.
+ */
 public class NanoParser<C> {
 
     private final static OperatorInfo EVAL_OP = new OperatorInfo(NanoGrammar.ACTION_EVAL, OpType.UNARY, 0, true);
 
     private final SemanticActionHandler<C> actionDispatcher;
+    /** Same as {@link #actionDispatcher} if it supports indexed lookup */
+    private final IndexedActionHandler<C> indexedDispatcher;
     private final SemanticActionSolver typeSolver;
-    private final ParseTable parseTable;
+    private final SyntaticScope scope;
+    private volatile LexerMode lexerMode = new LexerMode(false, false);
+    private volatile ParseTable parseTable;
+    private volatile PlanCache<CompiledExpression<C, ?>> planCache;
+    private volatile boolean reuseSessions = true;
+    /** Session of parse in progress or idle session retained for next parse */
+    private final ThreadLocal<ParseSession> sessions = new ThreadLocal<ParseSession>();
 
     public NanoParser(SemanticActionHandler<C> actionDispatcher, SyntaticScope scope) {
         this.actionDispatcher = actionDispatcher;
+        this.indexedDispatcher = actionDispatcher instanceof IndexedActionHandler ? (IndexedActionHandler<C>) actionDispatcher : null;
         this.typeSolver = new SemanticActionSolver(actionDispatcher);
-        this.parseTable = new ParseTable(scope);
+        this.scope = scope;
+        this.parseTable = new ParseTable(scope, lexerMode);
     }
 
     @SuppressWarnings("unchecked")
@@ -61,7 +92,104 @@ public class NanoParser<C> {
         this(new MultiSourceSemanticHandler<C>(actionSources), scope);
     }
 
+    /**
+     * In compiled lexer mode literal and regex patterns of each syntactic scope
+     * are combined into single regular expression, so next token is found in one scan
+     * instead of trying patterns one by one. Token priority is not affected.
+     * <br/>
+     * Should be configured before parser is used.
+     */
+    public void setCompiledLexer(boolean enabled) {
+        lexerMode = new LexerMode(enabled, lexerMode.longestLiteral);
+        parseTable = new ParseTable(scope, lexerMode);
+    }
+
+    /**
+     * Literal patterns of a scope are looked up using single char trie.
+     * By default first declared matching pattern wins, with longest literal
+     * match policy longest matching literal is chosen among literals.
+     * Priority between literal and other patterns is still defined by declaration order.
+     * <br/>
+     * Should be configured before parser is used.
+     */
+    public void setLongestLiteralMatch(boolean enabled) {
+        lexerMode = new LexerMode(lexerMode.compiled, enabled);
+        parseTable = new ParseTable(scope, lexerMode);
+    }
+
+    /**
+     * Enables cache of compiled expressions for {@link #parse(Object, Class, String)}.
+     * Repeated texts are parsed and type resolved once, only semantic actions are applied
+     * on cache hit.
+     * <br/>
+     * Cached expressions are evaluated without {@link #evalNode(Object, Class, SourceReader, ParseNode)},
+     * so cache cannot be used by subclasses overriding that hook (e.g. {@link TracingNanoParser}).
+     * <br/>
+     * Should be configured before parser is used.
+     *
+     * @throws IllegalStateException if subclass overrides <code>evalNode</code>
+     */
+    public void enablePlanCache(int maxSize, CacheEviction eviction) {
+        if (overridesEvalNode()) {
+            throw new IllegalStateException("Plan cache cannot be used, " + getClass().getName() + " overrides evalNode()");
+        }
+        planCache = new PlanCache<CompiledExpression<C, ?>>(maxSize, eviction);
+    }
+
+    private boolean overridesEvalNode() {
+        for(Class<?> c = getClass(); c != NanoParser.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("evalNode", Object.class, Class.class, SourceReader.class, ParseNode.class);
+                return true;
+            }
+            catch(NoSuchMethodException e) {
+                // continue with superclass
+            }
+        }
+        return false;
+    }
+
+    public void disablePlanCache() {
+        planCache = null;
+    }
+
+    public boolean isPlanCacheEnabled() {
+        return planCache != null;
+    }
+
+    /**
+     * Parse nodes, type sets, inference frames and work stacks are recycled
+     * between parses performed by same thread. Reuse is enabled by default,
+     * it should be disabled if subclass retains parse nodes passed to its hooks.
+     * <br/>
+     * Should be configured before parser is used.
+     */
+    public void setParseSessionReuse(boolean enabled) {
+        reuseSessions = enabled;
+    }
+
+    public long getPlanCacheHits() {
+        PlanCache<?> cache = planCache;
+        return cache == null ? 0 : cache.hits();
+    }
+
+    public long getPlanCacheMisses() {
+        PlanCache<?> cache = planCache;
+        return cache == null ? 0 : cache.misses();
+    }
+
     public <T> T parse(C parserContext, Class<T> type, String text) {
+        PlanCache<CompiledExpression<C, ?>> cache = planCache;
+        if (cache != null) {
+            PlanKey key = new PlanKey(text, type);
+            @SuppressWarnings("unchecked")
+            CompiledExpression<C, T> expr = (CompiledExpression<C, T>) cache.get(key);
+            if (expr == null) {
+                expr = compile(type, text);
+                cache.put(key, expr);
+            }
+            return expr.eval(parserContext);
+        }
         SourceReader source = new SourceReader(text);
         return parse(parserContext, type, source);
     }
@@ -70,287 +198,805 @@ public class NanoParser<C> {
      * Parses whole text as single expression.
      */
     public <T> T parse(C parserContext, Class<T> type, SourceReader source) {
-        ParseNode node =  parse(source, parseTable, null);
-        return evalNode(parserContext, type, source, node);
+        ParseSession session = openSession();
+        try {
+            ParseNode node =  parse(source, parseTable, null);
+            return evalNode(parserContext, type, source, node);
+        }
+        finally {
+            closeSession(session);
+        }
     }
 
     /**
      * Reader next expression from reader. Grammar should have at least one separator token.
+     * <br/>
+     * Streaming {@link SourceReader} discards text of previous expressions.
      */
     public <T> T parseNext(C parserContext, Class<T> type, SourceReader source) {
-        ParseNode node =  parse(source, parseTable, NanoGrammar.ACTION_EOE);
-        if (node == null) {
-            return null;
+        source.discardConsumed();
+        ParseSession session = openSession();
+        try {
+            ParseNode node =  parse(source, parseTable, NanoGrammar.ACTION_EOE);
+            if (node == null) {
+                return null;
+            }
+            else {
+                return evalNode(parserContext, type, source, node);
+            }
         }
-        else {
-            return evalNode(parserContext, type, source, node);
+        finally {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Parses whole text as single expression and binds it to semantic actions.
+     * Resulting expression could be evaluated many times without parsing.
+     */
+    public <T> CompiledExpression<C, T> compile(Class<T> type, String text) {
+        SourceReader source = new SourceReader(text);
+        ParseSession session = openSession();
+        try {
+            ParseNode node = wrapEval(type, source, parse(source, parseTable, null));
+            inferTree(type, node);
+            return new BoundExpression<T>(type, toEvaluator(type, node));
+        }
+        finally {
+            closeSession(session);
         }
     }
 
+    /**
+     * Binds session to current thread. Retained session is reused unless
+     * it is already in use (parser is called from semantic action).
+     */
+    private ParseSession openSession() {
+        ParseSession session = sessions.get();
+        if (session == null || session.active) {
+            ParseSession nested = new ParseSession(typeSolver);
+            nested.outer = session;
+            session = nested;
+            sessions.set(session);
+        }
+        session.active = true;
+        return session;
+    }
+
+    private void closeSession(ParseSession session) {
+        session.reset();
+        session.active = false;
+        if (session.outer != null) {
+            sessions.set(session.outer);
+            session.outer = null;
+        }
+        else if (!reuseSessions || session.isOversized()) {
+            sessions.remove();
+        }
+    }
+
+    /**
+     * @return session bound to current thread or throw away session
+     */
+    private ParseSession session() {
+        ParseSession session = sessions.get();
+        return session != null && session.active ? session : new ParseSession(typeSolver);
+    }
+
     protected <T> T evalNode(C parserContext, Class<T> type, SourceReader source, ParseNode node) {
+        node = wrapEval(type, source, node);
+        Object v = convertTree(parserContext, type, node);
+        return type.cast(v);
+    }
+
+    private ParseNode wrapEval(Class<?> type, SourceReader source, ParseNode node) {
         if (actionDispatcher.enumUnaries(NanoGrammar.ACTION_EVAL, type, null).length > 0) {
-            ParseNode evalNode = new ParseNode();
+            ParseNode evalNode = session().node();
             evalNode.op = EVAL_OP;
             evalNode.token = source.emptyToken();
             evalNode.leftNode = node;
-            node = evalNode;
+            return evalNode;
+        }
+        else {
+            return node;
         }
-        Object v = convertTree(parserContext, type, node);
-        return type.cast(v);
     }
 
+    /**
+     * Enclosures are parsed in nested frames kept on explicit stack,
+     * so nesting depth is not limited by thread stack.
+     */
     protected <T> ParseNode parse(SourceReader stream, ParseTable table, String eoeToken) {
-        ParserState parser = new ParserState();
+        ParseSession session = session();
+        List<ParseFrame> stack = session.frameStack;
+        ParseFrame frame = session.frame(table, eoeToken, null);
+        while(true) {
+            ParseFrame nested = parseScope(session, stream, frame);
+            if (nested != null) {
+                stack.add(frame);
+                frame = nested;
+            }
+            else if (stack.isEmpty()) {
+                return frame.result;
+            }
+            else {
+                ParseNode enclosure = frame.enclosure;
+                enclosure.leftNode = frame.result;
+                frame = stack.remove(stack.size() - 1);
+                frame.parser.pushToken(enclosure);
+            }
+        }
+    }
+
+    /**
+     * Consumes tokens until scope is complete or nested enclosure is opened.
+     *
+     * @return frame of nested enclosure or <code>null</code> if scope is complete, see {@link ParseFrame#result}
+     */
+    private ParseFrame parseScope(ParseSession session, SourceReader stream, ParseFrame frame) {
+        ParseTable table = frame.table;
+        String eoeToken = frame.eoeToken;
+        ParserState parser = frame.parser;
 
         tokenLoop:
         while(!stream.endOfStream()) {
 
-            if (table.skipPattern != null && stream.matchToken(table.skipPattern) != null) {
+            if (stream.skip(table.skipPattern)) {
                 continue;
             }
             if (table.escapeToken != null) {
                 Token tkn = stream.matchToken(table.escapeToken, table.skipPattern);
                 if (tkn != null) {
-                    return parser.collapse(tkn);
+                    frame.result = parser.collapse(tkn);
+                    return null;
                 }
             }
             Token prev = stream.emptyToken();
-            for(ParseTableElement pat: table.table) {
-                Token tkn = stream.matchToken(pat.matchers, table.skipPattern);
+            char ch = stream.currentChar();
+            ParseTableElement[] candidates = table.candidates(ch);
+            CompiledLexer lexer = table.lexer(ch);
+            int alt = lexer == null ? CompiledLexer.TRY_ALL : lexer.lookup(stream.text(), stream.getOffset());
+            LiteralTrie literals = table.literals(ch);
+            int lit = literals == null ? LiteralTrie.NO_MATCH : literals.lookup(stream.text(), stream.getOffset());
+            ParseTableElement pat = null;
+            Token tkn = null;
+            for(int i = 0; i != candidates.length; ++i) {
+                if (alt != CompiledLexer.TRY_ALL && lexer.isCompiled(i) && i != alt) {
+                    // compiled lexer has proven that pattern is not matching
+                    continue;
+                }
+                if (literals != null && literals.isLiteral(i) && i != lit) {
+                    continue;
+                }
+                tkn = stream.matchToken(candidates[i].matchers, table.skipPattern);
                 if (tkn != null) {
-                    if (pat.term) {
-                        if (pat.operatorInfo.id().equals(eoeToken)) {
-                            // end of expression token
-                            break tokenLoop;
-                        }
+                    pat = candidates[i];
+                    break;
+                }
+            }
+            if (tkn == null) {
+                // No token matched
+                error(prev, "Cannot parse next token");
+            }
+            if (pat.term) {
+                if (pat.operatorInfo.id().equals(eoeToken)) {
+                    // end of expression token
+                    break tokenLoop;
+                }
 
-                        ParseNode lastNode = parser.isEmpty() ? null : parser.last();
-                        if (lastNode != null && lastNode.isTerm()) {
+                ParseNode lastNode = parser.isEmpty() ? null : parser.last();
+                if (lastNode != null && lastNode.isTerm()) {
 
-                            // placing implicit glue operation
-                            if (pat.prefixOp != null) {
-                                ParseNode node = new ParseNode();
-                                node.op = pat.prefixOp;
-                                node.token = prev;
-                                node.rank = pat.prefixOp.rank();
-                                parser.pushToken(node);
-                            }
-                            else if (lastNode.rule != null && lastNode.rule.postfixOp != null) {
-                                ParseNode node = new ParseNode();
-                                node.op = lastNode.rule.postfixOp;
-                                node.token = prev;
-                                node.rank = lastNode.rule.postfixOp.rank();
-                                parser.pushToken(node);
-                            }
-                            else if (table.glueToken != null) {
-                                ParseNode node = new ParseNode();
-                                node.op = table.glueToken;
-                                node.token = prev;
-                                node.rank = table.glueToken.rank();
-                                parser.pushToken(node);
-                            }
-                        }
-
-                        ParseNode node = new ParseNode();
-                        node.rule = pat;
-                        node.op = pat.operatorInfo;
-                        node.token = tkn;
-                        node.rank = -1;
+                    // placing implicit glue operation
+                    if (pat.prefixOp != null) {
+                        ParseNode node = session.node();
+                        node.op = pat.prefixOp;
+                        node.token = prev;
+                        node.rank = pat.prefixOp.rank();
                         parser.pushToken(node);
                     }
-                    else if (pat.enclosing) {
-                        boolean implPrefix = false;
-                        if (pat.prefixOp != null) {
-                            if (!pat.optionalPrefix || parser.isOperatorExpected()) {
-                                ParseNode prefOp = new ParseNode();
-                                prefOp.op = pat.prefixOp;
-                                prefOp.token = tkn;
-                                prefOp.rank = prefOp.op.rank();
-                                parser.pushToken(prefOp);
-                                implPrefix = true;
-                            }
-                        }
-                        if (table.glueToken != null && parser.isOperatorExpected()) {
-                            ParseNode node = new ParseNode();
-                            node.op = table.glueToken;
-                            node.token = prev;
-                            node.rank = table.glueToken.rank();
-                            parser.pushToken(node);
-                        }
-                        ParseNode node = new ParseNode();
-                        node.rule = pat;
-                        node.op = pat.operatorInfo;
-                        node.token = tkn;
-                        node.rank = -1;
-
-                        node.leftNode = parse(stream, pat.subtable(implPrefix), null);
-
+                    else if (lastNode.rule != null && lastNode.rule.postfixOp != null) {
+                        ParseNode node = session.node();
+                        node.op = lastNode.rule.postfixOp;
+                        node.token = prev;
+                        node.rank = lastNode.rule.postfixOp.rank();
                         parser.pushToken(node);
                     }
-                    else {
-                        // regular operator
-                        ParseNode node = new ParseNode();
-                        node.rule = pat;
-                        node.op = pat.operatorInfo;
-                        node.token = tkn;
-                        node.rank = pat.operatorInfo.rank();
-
+                    else if (table.glueToken != null) {
+                        ParseNode node = session.node();
+                        node.op = table.glueToken;
+                        node.token = prev;
+                        node.rank = table.glueToken.rank();
                         parser.pushToken(node);
                     }
+                }
 
-                    // Token processed
-                    continue tokenLoop;
+                ParseNode node = session.node();
+                node.rule = pat;
+                node.op = pat.operatorInfo;
+                node.token = tkn;
+                node.rank = -1;
+                parser.pushToken(node);
+            }
+            else if (pat.enclosing) {
+                boolean implPrefix = false;
+                if (pat.prefixOp != null) {
+                    if (!pat.optionalPrefix || parser.isOperatorExpected()) {
+                        ParseNode prefOp = session.node();
+                        prefOp.op = pat.prefixOp;
+                        prefOp.token = tkn;
+                        prefOp.rank = prefOp.op.rank();
+                        parser.pushToken(prefOp);
+                        implPrefix = true;
+                    }
                 }
+                if (table.glueToken != null && parser.isOperatorExpected()) {
+                    ParseNode node = session.node();
+                    node.op = table.glueToken;
+                    node.token = prev;
+                    node.rank = table.glueToken.rank();
+                    parser.pushToken(node);
+                }
+                ParseNode node = session.node();
+                node.rule = pat;
+                node.op = pat.operatorInfo;
+                node.token = tkn;
+                node.rank = -1;
+
+                // node is pushed once nested scope is parsed
+                return session.frame(pat.subtable(implPrefix), null, node);
+            }
+            else {
+                // regular operator
+                ParseNode node = session.node();
+                node.rule = pat;
+                node.op = pat.operatorInfo;
+                node.token = tkn;
+                node.rank = pat.operatorInfo.rank();
+
+                parser.pushToken(node);
             }
-            // No token matched
-            error(prev, "Cannot parse next token");
+
         }
         if (table.escapeToken != null) {
             error(stream.emptyToken(), "Syntatic scope is not closed");
         }
         // tolerate empty expression
         if (parser.isEmpty() && eoeToken != null) {
-            return null;
+            frame.result = null;
+        }
+        else {
+            frame.result = parser.collapse(stream.emptyToken());
         }
-        return parser.collapse(stream.emptyToken());
+        return null;
     }
 
     private <T> Object convertTree(C parserContext, Class<T> type, ParseNode node) {
-        markTypes(typeSolver.setOf(type), node);
+        inferTree(type, node);
+        return applyActions(parserContext, type, node);
+    }
+
+    private void inferTree(Class<?> type, ParseNode node) {
+        TypeSet master = session().typeSet();
+        typeSolver.addAssignable(master, type);
+        markTypes(master, node);
         Error error = mapActions(type, node, -1);
-        if (error == null) {
-            return applyActions(parserContext, type, node);
-        }
-        else {
-            throw new ParserException(error.token, error.message);
+        if (error != null) {
+            throw new ParserException(error.token, error.message());
         }
     }
 
+    /**
+     * Depth first search over handler overloads, driven by explicit stack of frames.
+     * <br/>
+     * Results are memoized per node and type, otherwise subtrees would be
+     * re-inferred for each handler overload tried by parent node.
+     * Errors also depend on progress, so they are memoized per progress.
+     */
     private Error mapActions(Class<?> type, ParseNode node, int bestParsed) {
-        if (isTerm(node)) {
-            return mapTermAction(type, node, bestParsed);
+        ParseSession session = session();
+        List<InferenceFrame> stack = session.inferenceStack;
+        InferenceFrame frame = openInference(session, type, node, bestParsed);
+        Error result = null;
+        while(true) {
+            if (frame.done) {
+                result = closeInference(session, frame);
+                if (stack.isEmpty()) {
+                    return result;
+                }
+                frame = stack.remove(stack.size() - 1);
+            }
+            InferenceFrame child = isUnary(frame.node) ? advanceUnary(session, frame, result) : advanceBinary(session, frame, result);
+            if (child != null) {
+                stack.add(frame);
+                frame = child;
+            }
         }
-        else if (isUnary(node)) {
-            return mapUnaryAction(type, node, bestParsed);
+    }
+
+    private InferenceFrame openInference(ParseSession session, Class<?> type, ParseNode node, int bestParsed) {
+        InferenceFrame frame = session.inference(type, node, bestParsed);
+        Error memoizedError;
+        if (node.inferedHandlers != null && node.inferedHandlers.containsKey(type)) {
+            frame.memoized = true;
+            frame.finish(null);
+        }
+        else if (node.inferenceErrors != null && (memoizedError = node.inferenceErrors.get(session.probe(type, bestParsed))) != null) {
+            frame.memoized = true;
+            frame.finish(memoizedError);
         }
         else {
-            return mapBinaryAction(type, node, bestParsed);
+            inferenceStarted(type, node);
+            if (isTerm(node)) {
+                frame.finish(mapTermAction(type, node, bestParsed));
+            }
+        }
+        return frame;
+    }
+
+    private Error closeInference(ParseSession session, InferenceFrame frame) {
+        if (!frame.memoized) {
+            ParseNode node = frame.node;
+            if (frame.error != null) {
+                if (node.inferenceErrors == null) {
+                    node.inferenceErrors = new HashMap<InferenceKey, Error>();
+                }
+                node.inferenceErrors.put(session.key(frame.type, frame.bestParsed), frame.error);
+            }
+            frame.memoized = true;
+            inferenceCompleted(frame.type, node, frame.error);
+        }
+        return frame.error;
+    }
+
+    /**
+     * Called before inference of node for type, results are memoized,
+     * so it is called once per node, type and progress.
+     */
+    protected void inferenceStarted(Class<?> type, ParseNode node) {
+        // hook for tracing
+    }
+
+    /**
+     * @param error inference error or <code>null</code> if handler was found
+     */
+    protected void inferenceCompleted(Class<?> type, ParseNode node, Error error) {
+        // hook for tracing
+    }
+
+    private static void infered(ParseNode node, Class<?> type, Object handler) {
+        if (node.inferedHandlers == null) {
+            node.inferedHandlers = new HashMap<Class<?>, Object>();
         }
+        node.inferedHandlers.put(type, handler);
     }
 
-    private Object applyActions(C parserContext, Class<?> type, ParseNode node) {
-        if (isTerm(node)) {
-            return applyTermAction(parserContext, type, node);
+    /**
+     * Converts type resolved tree into tree of evaluators. Trees deeper than
+     * {@link Evaluator#MAX_RECURSIVE_DEPTH} are evaluated without recursion.
+     */
+    @SuppressWarnings("unchecked")
+    private Evaluator<C> toEvaluator(Class<?> type, ParseNode root) {
+        ParseSession session = session();
+        List<ParseNode> nodes = session.nodeList;
+        List<Class<?>> types = session.typeList;
+        resolvedOrder(session, type, root);
+        List<Evaluator<C>> evaluators = (List<Evaluator<C>>) (List<?>) session.values;
+        evaluators.clear();
+        int[] depths = new int[nodes.size()];
+        int sp = 0;
+        for(int i = 0; i != nodes.size(); ++i) {
+            ParseNode node = nodes.get(i);
+            Object handler = node.inferedHandlers.get(types.get(i));
+            if (isTerm(node)) {
+                if (handler == NO_HANDLER) {
+                    evaluators.add(new Evaluator.Text<C>(node.token.tokenBody()));
+                }
+                else {
+                    TermActionHandler<C, ?> h = (TermActionHandler<C, ?>) handler;
+                    if (isPrimitive(h, h.returnType())) {
+                        evaluators.add(toPrimitiveEvaluator(h, h.returnType(), node.token, null, null));
+                    }
+                    else {
+                        evaluators.add(new Evaluator.Term<C>(h, node.token));
+                    }
+                }
+                depths[sp++] = 1;
+            }
+            else if (isUnary(node)) {
+                if (handler != NO_HANDLER) {
+                    UnaryActionHandler<C, ?, Object> h = (UnaryActionHandler<C, ?, Object>) handler;
+                    Evaluator<C> arg = evaluators.remove(evaluators.size() - 1);
+                    if (isPrimitive(h, h.returnType(), h.argType())) {
+                        evaluators.add(toPrimitiveEvaluator(h, h.returnType(), node.token, arg, null));
+                    }
+                    else {
+                        evaluators.add(new Evaluator.Unary<C>(h, node.token, arg));
+                    }
+                    ++depths[sp - 1];
+                }
+            }
+            else {
+                BinaryActionHandler<C, ?, Object, Object> h = (BinaryActionHandler<C, ?, Object, Object>) handler;
+                Evaluator<C> right = evaluators.remove(evaluators.size() - 1);
+                Evaluator<C> left = evaluators.remove(evaluators.size() - 1);
+                if (isPrimitive(h, h.returnType(), h.leftType(), h.rightType())) {
+                    evaluators.add(toPrimitiveEvaluator(h, h.returnType(), node.token, left, right));
+                }
+                else {
+                    evaluators.add(new Evaluator.Binary<C>(h, node.token, left, right));
+                }
+                --sp;
+                depths[sp - 1] = 1 + Math.max(depths[sp - 1], depths[sp]);
+            }
+        }
+        Evaluator<C> evaluator = evaluators.get(0);
+        return depths[0] > Evaluator.MAX_RECURSIVE_DEPTH ? new Evaluator.Iterative<C>(evaluator) : evaluator;
+    }
+
+    /**
+     * Operands of primitive evaluator are of its own type, so chain
+     * of primitive handlers is evaluated without boxing.
+     */
+    private Evaluator<C> toPrimitiveEvaluator(ActionHandler handler, Class<?> type, Token token, Evaluator<C> left, Evaluator<C> right) {
+        if (type == Integer.class) {
+            return new Evaluator.IntOp<C>(handler, token, left, right);
         }
-        else if (isUnary(node)) {
-            return applyUnaryAction(parserContext, type, node);
+        else if (type == Long.class) {
+            return new Evaluator.LongOp<C>(handler, token, left, right);
+        }
+        else if (type == Double.class) {
+            return new Evaluator.DoubleOp<C>(handler, token, left, right);
         }
         else {
-            return applyBinaryAction(parserContext, type, node);
+            return new Evaluator.BooleanOp<C>(handler, token, left, right);
         }
     }
 
+    /**
+     * Boxed type followed by term, unary and binary primitive handler interfaces.
+     */
+    private static final Class<?>[][] PRIMITIVE_HANDLERS = {
+        {Integer.class, IntTermHandler.class, IntUnaryHandler.class, IntBinaryHandler.class},
+        {Long.class, LongTermHandler.class, LongUnaryHandler.class, LongBinaryHandler.class},
+        {Double.class, DoubleTermHandler.class, DoubleUnaryHandler.class, DoubleBinaryHandler.class},
+        {Boolean.class, BooleanTermHandler.class, BooleanUnaryHandler.class, BooleanBinaryHandler.class},
+    };
+
+    /**
+     * Primitive flavor affects only choice of evaluator for already inferred
+     * handler, inference itself follows declaration order.
+     *
+     * @return <code>true</code> if handler implements primitive flavor for its arity and all operands share return type
+     */
+    static boolean isPrimitive(Object handler, Class<?> type, Class<?>... argTypes) {
+        for(Class<?> at: argTypes) {
+            if (at != type) {
+                return false;
+            }
+        }
+        for(Class<?>[] ph: PRIMITIVE_HANDLERS) {
+            if (ph[0] == type) {
+                return ph[1 + argTypes.length].isInstance(handler);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates tree bottom up, operand values are kept on explicit stack.
+     */
+    private Object applyActions(C parserContext, Class<?> type, ParseNode root) {
+        ParseSession session = session();
+        List<ParseNode> nodes = session.nodeList;
+        List<Class<?>> types = session.typeList;
+        resolvedOrder(session, type, root);
+        List<Object> values = session.values;
+        values.clear();
+        for(int i = 0; i != nodes.size(); ++i) {
+            ParseNode node = nodes.get(i);
+            Object handler = node.inferedHandlers.get(types.get(i));
+            if (isTerm(node)) {
+                values.add(applyTermAction(parserContext, handler, node));
+            }
+            else if (isUnary(node)) {
+                if (handler != NO_HANDLER) {
+                    Object arg = values.remove(values.size() - 1);
+                    values.add(applyUnaryAction(parserContext, handler, node, arg));
+                }
+            }
+            else {
+                Object right = values.remove(values.size() - 1);
+                Object left = values.remove(values.size() - 1);
+                values.add(applyBinaryAction(parserContext, handler, node, left, right));
+            }
+        }
+        return values.get(0);
+    }
+
+    /**
+     * Lists nodes of type resolved tree together with type required from them
+     * into {@link ParseSession#nodeList} and {@link ParseSession#typeList}.
+     * Operands precede their operator, left operand precedes right one.
+     */
+    @SuppressWarnings("unchecked")
+    private void resolvedOrder(ParseSession session, Class<?> type, ParseNode root) {
+        List<ParseNode> nodes = session.nodeList;
+        List<Class<?>> types = session.typeList;
+        List<ParseNode> stack = session.nodeStack;
+        List<Class<?>> stackTypes = session.typeStack;
+        nodes.clear();
+        types.clear();
+        stack.add(root);
+        stackTypes.add(type);
+        while(!stack.isEmpty()) {
+            ParseNode node = stack.remove(stack.size() - 1);
+            Class<?> t = stackTypes.remove(stackTypes.size() - 1);
+            nodes.add(node);
+            types.add(t);
+            Object handler = node.inferedHandlers.get(t);
+            if (isTerm(node)) {
+                continue;
+            }
+            else if (isUnary(node)) {
+                stack.add(node.leftNode);
+                stackTypes.add(handler == NO_HANDLER ? t : ((UnaryActionHandler<C, ?, Object>) handler).argType());
+            }
+            else {
+                BinaryActionHandler<C, ?, Object, Object> h = (BinaryActionHandler<C, ?, Object, Object>) handler;
+                stack.add(node.leftNode);
+                stackTypes.add(h.leftType());
+                stack.add(node.rightNode);
+                stackTypes.add(h.rightType());
+            }
+        }
+        // node, right subtree, left subtree reversed
+        Collections.reverse(nodes);
+        Collections.reverse(types);
+    }
+
     protected Error mapTermAction(Class<?> type, ParseNode node, int bestParsed) {
         if (NanoGrammar.ACTION_NOOP.equals(node.op.id())) {
             if (type != String.class && type != Object.class) {
                 return errorConversion(node.token, bestParsed, type, String.class);
             }
             else {
+                infered(node, type, NO_HANDLER);
                 return null;
             }
         }
         else {
-            TermActionHandler<?, ?>[] hh = actionDispatcher.enumTerm(node.op.id(), type);
+            TermActionHandler<?, ?>[] hh = termHandlers(node, type);
             if (hh.length == 0) {
                 return errorOperation(node.token, bestParsed, type, node.op.id());
             }
             else {
-                node.inferedHandler = hh[0];
+                infered(node, type, hh[0]);
                 return null;
             }
         }
     }
 
+    /**
+     * Infers handlers for unary node and its operand.
+     *
+     * @deprecated inference no longer calls this method, so overriding it has no effect,
+     *             use {@link #inferenceStarted(Class, ParseNode)} and {@link #inferenceCompleted(Class, ParseNode, Error)} hooks
+     */
+    @Deprecated
     protected Error mapUnaryAction(Class<?> type, ParseNode node, int bestParsed) {
+        return mapActions(type, node, bestParsed);
+    }
+
+    /**
+     * Infers handlers for binary node and its operands.
+     *
+     * @deprecated inference no longer calls this method, so overriding it has no effect,
+     *             use {@link #inferenceStarted(Class, ParseNode)} and {@link #inferenceCompleted(Class, ParseNode, Error)} hooks
+     */
+    @Deprecated
+    protected Error mapBinaryAction(Class<?> type, ParseNode node, int bestParsed) {
+        return mapActions(type, node, bestParsed);
+    }
+
+    /**
+     * Tries unary handlers in order, first handler with resolvable argument wins.
+     *
+     * @param result result of previously requested child inference
+     * @return child inference to perform or <code>null</code> if frame is done
+     */
+    private InferenceFrame advanceUnary(ParseSession session, InferenceFrame frame, Error result) {
+        ParseNode node = frame.node;
+        Class<?> type = frame.type;
         if (NanoGrammar.ACTION_NOOP.equals(node.op.id())) {
-            return mapActions(type, node.leftNode, node.leftNode.token.offset());
+            if (!frame.awaiting) {
+                frame.awaiting = true;
+                return openInference(session, type, node.leftNode, node.leftNode.token.offset());
+            }
+            if (result == null) {
+                infered(node, type, NO_HANDLER);
+            }
+            frame.finish(result);
+            return null;
+        }
+        UnaryActionHandler<?, ?, ?>[] hh;
+        if (frame.handlers == null) {
+            frame.handlers = hh = unaryHandlers(node, type);
         }
         else {
-            UnaryActionHandler<?, ?, ?>[] hh = actionDispatcher.enumUnaries(node.op.id(), type, null);
-            Error fe = null;
-            for(UnaryActionHandler<?, ?, ?> h: hh) {
-                Class<?> at = h.argType();
-                Error e = mapActions(at, node.leftNode, node.leftNode.token.offset());
-                if (e != null) {
-                    fe = bestError(fe, e);
-                }
-                else {
-                    // solution found
-                    node.inferedHandler = h;
-                    return null;
-                }
+            hh = (UnaryActionHandler<?, ?, ?>[]) frame.handlers;
+        }
+        if (frame.awaiting) {
+            frame.awaiting = false;
+            if (result == null) {
+                // solution found
+                infered(node, type, hh[frame.next]);
+                frame.finish(null);
+                return null;
             }
-            if (fe != null) {
-                return fe;
+            frame.bestError = bestError(frame.bestError, result);
+            ++frame.next;
+        }
+        if (frame.next < hh.length) {
+            frame.awaiting = true;
+            return openInference(session, hh[frame.next].argType(), node.leftNode, node.leftNode.token.offset());
+        }
+        if (frame.bestError != null) {
+            frame.finish(frame.bestError);
+        }
+        else {
+            Class<?> dt = defaultUnaryType(node.op.id(), defaultType(node.leftNode));
+            if (dt == null) {
+                frame.finish(errorOperation(node.token, frame.bestParsed, type, node.op.id()));
             }
             else {
-                Class<?> dt = defaultUnaryType(node.op.id(), defaultType(node.leftNode));
-                if (dt == null) {
-                    return errorOperation(node.token, bestParsed, type, node.op.id());
-                }
-                else {
-                    return errorConversion(node.token, bestParsed, type, dt);
-                }
+                frame.finish(errorConversion(node.token, frame.bestParsed, type, dt));
             }
         }
+        return null;
     }
 
-    protected Error mapBinaryAction(Class<?> type, ParseNode node, int bestParsed) {
-
-        BinaryActionHandler<?, ?, ?, ?>[] hh = actionDispatcher.enumBinaries(node.op.id(), type, null, null);
-        Error fe = null; // right most error
-        for(BinaryActionHandler<?, ?, ?, ?> h: hh) {
-            int progress = bestParsed;
-            Class<?> lt = h.leftType();
-            Class<?> rt = h.rightType();
-            Error e = mapActions(lt, node.leftNode, progress);
-            progress = node.leftNode.token.offset();
-            if (e == null) {
-                e = mapActions(rt, node.rightNode, progress);
-            }
-            if (e != null) {
-                fe = bestError(fe, e);
+    /**
+     * Tries binary handlers in order, left operand is resolved before right one.
+     *
+     * @param result result of previously requested child inference
+     * @return child inference to perform or <code>null</code> if frame is done
+     */
+    private InferenceFrame advanceBinary(ParseSession session, InferenceFrame frame, Error result) {
+        ParseNode node = frame.node;
+        Class<?> type = frame.type;
+        BinaryActionHandler<?, ?, ?, ?>[] hh;
+        if (frame.handlers == null) {
+            frame.handlers = hh = binaryHandlers(node, type);
+        }
+        else {
+            hh = (BinaryActionHandler<?, ?, ?, ?>[]) frame.handlers;
+        }
+        if (frame.awaiting) {
+            frame.awaiting = false;
+            if (result == null && !frame.rightOperand) {
+                frame.rightOperand = true;
+                frame.awaiting = true;
+                return openInference(session, hh[frame.next].rightType(), node.rightNode, node.leftNode.token.offset());
             }
-            else {
+            else if (result == null) {
                 // solution found
-                node.inferedHandler = h;
+                infered(node, type, hh[frame.next]);
+                frame.finish(null);
                 return null;
             }
+            frame.bestError = bestError(frame.bestError, result);
+            frame.rightOperand = false;
+            ++frame.next;
+        }
+        if (frame.next < hh.length) {
+            frame.awaiting = true;
+            return openInference(session, hh[frame.next].leftType(), node.leftNode, frame.bestParsed);
         }
-        if (fe != null) {
-            return fe;
+        if (frame.bestError != null) {
+            frame.finish(frame.bestError);
         }
         else {
             Class<?> dt = defaultBinaryType(node.op.id(), defaultType(node.leftNode), defaultType(node.rightNode));
             if (dt == null) {
-                return errorOperation(node.token, bestParsed, type, node.op.id());
+                frame.finish(errorOperation(node.token, frame.bestParsed, type, node.op.id()));
             }
             else {
-                return errorConversion(node.token, bestParsed, type, dt);
+                frame.finish(errorConversion(node.token, frame.bestParsed, type, dt));
+            }
+        }
+        return null;
+    }
+
+    private Class<?> defaultType(ParseNode root) {
+        List<ParseNode> order = postOrder(root);
+        Map<ParseNode, Class<?>> types = new IdentityHashMap<ParseNode, Class<?>>();
+        for(ParseNode node: order) {
+            Class<?> t;
+            if (isTerm(node)) {
+                t = defaultTermType(node.op.id());
+            }
+            else if (isUnary(node)) {
+                t = defaultUnaryType(node.op.id(), types.get(node.leftNode));
+            }
+            else {
+                t = defaultBinaryType(node.op.id(), types.get(node.leftNode), types.get(node.rightNode));
+            }
+            types.put(node, t);
+        }
+        return types.get(root);
+    }
+
+    /**
+     * @return nodes of subtree, operands precede their operator, left operand precedes right one
+     */
+    static List<ParseNode> postOrder(ParseNode root) {
+        List<ParseNode> order = new ArrayList<ParseNode>();
+        List<ParseNode> stack = new ArrayList<ParseNode>();
+        stack.add(root);
+        while(!stack.isEmpty()) {
+            ParseNode node = stack.remove(stack.size() - 1);
+            order.add(node);
+            if (node.leftNode != null) {
+                stack.add(node.leftNode);
+            }
+            if (node.rightNode != null) {
+                stack.add(node.rightNode);
             }
         }
+        // node, right subtree, left subtree reversed
+        Collections.reverse(order);
+        return order;
+    }
+
+    private TermActionHandler<?, ?>[] termHandlers(ParseNode node, Class<?> rType) {
+        int rt = indexedDispatcher == null ? IndexedActionHandler.UNKNOWN : indexedDispatcher.typeIndex(rType);
+        if (rt == IndexedActionHandler.UNKNOWN) {
+            return actionDispatcher.enumTerm(node.op.id(), rType);
+        }
+        else {
+            return indexedDispatcher.indexedTerms(opIndex(node), rt);
+        }
+    }
+
+    private UnaryActionHandler<?, ?, ?>[] unaryHandlers(ParseNode node, Class<?> rType) {
+        int rt = indexedDispatcher == null ? IndexedActionHandler.UNKNOWN : indexedDispatcher.typeIndex(rType);
+        if (rt == IndexedActionHandler.UNKNOWN) {
+            return actionDispatcher.enumUnaries(node.op.id(), rType, null);
+        }
+        else {
+            return indexedDispatcher.indexedUnaries(opIndex(node), rt);
+        }
+    }
+
+    private BinaryActionHandler<?, ?, ?, ?>[] binaryHandlers(ParseNode node, Class<?> rType) {
+        int rt = indexedDispatcher == null ? IndexedActionHandler.UNKNOWN : indexedDispatcher.typeIndex(rType);
+        if (rt == IndexedActionHandler.UNKNOWN) {
+            return actionDispatcher.enumBinaries(node.op.id(), rType, null, null);
+        }
+        else {
+            return indexedDispatcher.indexedBinaries(opIndex(node), rt);
+        }
     }
 
-    private Class<?> defaultType(ParseNode node) {
-        if (isTerm(node)) {
-            return defaultTermType(node.op.id());
-        }
-        else if (isUnary(node)) {
-            return defaultUnaryType(node.op.id(), defaultType(node.leftNode));
-        }
-        else {
-            return defaultBinaryType(node.op.id(), defaultType(node.leftNode), defaultType(node.rightNode));
+    /**
+     * Operator index is resolved once per parse node, nodes
+     * created from parse table take it from their rule.
+     */
+    private int opIndex(ParseNode node) {
+        if (node.opIndex == ParseNode.UNRESOLVED) {
+            ParseTableElement rule = node.rule;
+            if (rule != null && rule.operatorInfo == node.op) {
+                if (rule.opIndex == ParseNode.UNRESOLVED) {
+                    rule.opIndex = indexedDispatcher.opIndex(node.op.id());
+                }
+                node.opIndex = rule.opIndex;
+            }
+            else {
+                node.opIndex = indexedDispatcher.opIndex(node.op.id());
+            }
         }
+        return node.opIndex;
     }
 
     private Class<?> defaultTermType(String id) {
@@ -381,21 +1027,55 @@ public class NanoParser<C> {
     }
 
 
-    private void markTypes(TypeSet masterSet, ParseNode node) {
-        node.typeMarkUp = typeSolver.setOf();
-
-        if (isTerm(node)) {
-            markTermTypes(masterSet, node);
-        }
-        else if (isUnary(node)) {
-            markUnaryTypes(masterSet, node);
-        }
-        else {
-            mapBinaryTypes(masterSet, node);
+    /**
+     * Master set of each node is derived from its parent top down,
+     * then types are marked bottom up, operands before their operator.
+     */
+    private void markTypes(TypeSet masterSet, ParseNode root) {
+        ParseSession session = session();
+        List<ParseNode> nodes = session.nodeList;
+        List<TypeSet> masters = session.typeSetList;
+        nodes.clear();
+        masters.clear();
+        nodes.add(root);
+        masters.add(masterSet);
+        for(int i = 0; i != nodes.size(); ++i) {
+            ParseNode node = nodes.get(i);
+            TypeSet master = masters.get(i);
+            if (isTerm(node)) {
+                continue;
+            }
+            else if (isUnary(node)) {
+                nodes.add(node.leftNode);
+                masters.add(unaryArgTypes(session, master, node));
+            }
+            else {
+                TypeSet lts = session.typeSet();
+                TypeSet rts = session.typeSet();
+                binaryArgTypes(master, node, lts, rts);
+                nodes.add(node.leftNode);
+                masters.add(lts);
+                nodes.add(node.rightNode);
+                masters.add(rts);
+            }
         }
+        // children are always listed after their parent
+        for(int i = nodes.size() - 1; i >= 0; --i) {
+            ParseNode node = nodes.get(i);
+            node.typeMarkUp = session.typeSet();
+            if (isTerm(node)) {
+                markTermTypes(masters.get(i), node);
+            }
+            else if (isUnary(node)) {
+                markUnaryTypes(masters.get(i), node);
+            }
+            else {
+                mapBinaryTypes(masters.get(i), node);
+            }
 
-        if (node.typeMarkUp.isEmpty()) {
-            errorHook();
+            if (node.typeMarkUp.isEmpty()) {
+                errorHook();
+            }
         }
     }
 
@@ -410,7 +1090,7 @@ public class NanoParser<C> {
             }
         }
         else {
-            TermActionHandler<?, ?>[] hh = actionDispatcher.enumTerm(node.op.id(), null);
+            TermActionHandler<?, ?>[] hh = termHandlers(node, null);
             for(TermActionHandler<?, ?> h: hh) {
                 if (masterSet.contains(h.returnType())) {
                     node.typeMarkUp.add(h.returnType());
@@ -422,20 +1102,29 @@ public class NanoParser<C> {
         }
     }
 
+    private TypeSet unaryArgTypes(ParseSession session, TypeSet masterSet, ParseNode node) {
+        if (NanoGrammar.ACTION_NOOP.equals(node.op.id())) {
+            return masterSet;
+        }
+        UnaryActionHandler<?, ?, ?>[] hh = unaryHandlers(node, null);
+        TypeSet sub = session.typeSet();
+        for(UnaryActionHandler<?, ?, ?> h: hh) {
+            if (masterSet.contains(h.returnType())) {
+                sub.add(h.argType());
+            }
+        }
+        return sub;
+    }
+
+    /**
+     * Operand types should be already marked.
+     */
     protected void markUnaryTypes(TypeSet masterSet, ParseNode node) {
         if (NanoGrammar.ACTION_NOOP.equals(node.op.id())) {
-            markTypes(masterSet, node.leftNode);
             node.typeMarkUp.addAll(node.leftNode.typeMarkUp);
         }
         else {
-            UnaryActionHandler<?, ?, ?>[] hh = actionDispatcher.enumUnaries(node.op.id(), null, null);
-            TypeSet sub = typeSolver.setOf();
-            for(UnaryActionHandler<?, ?, ?> h: hh) {
-                if (masterSet.contains(h.returnType())) {
-                    sub.add(h.argType());
-                }
-            }
-            markTypes(sub, node.leftNode);
+            UnaryActionHandler<?, ?, ?>[] hh = unaryHandlers(node, null);
             for(UnaryActionHandler<?, ?, ?> h: hh) {
                 if (masterSet.contains(h.returnType())) {
                     if (node.leftNode.typeMarkUp.contains(h.argType())) {
@@ -449,21 +1138,21 @@ public class NanoParser<C> {
         }
     }
 
-    protected void mapBinaryTypes(TypeSet masterSet, ParseNode node) {
-
-        BinaryActionHandler<?, ?, ?, ?>[] hh = actionDispatcher.enumBinaries(node.op.id(), null, null, null);
-
-        TypeSet lts = typeSolver.setOf();
-        TypeSet rts = typeSolver.setOf();
-
+    private void binaryArgTypes(TypeSet masterSet, ParseNode node, TypeSet lts, TypeSet rts) {
+        BinaryActionHandler<?, ?, ?, ?>[] hh = binaryHandlers(node, null);
         for(BinaryActionHandler<?, ?, ?, ?> h: hh) {
             if (masterSet.contains(h.returnType())) {
                 lts.add(h.leftType());
                 rts.add(h.rightType());
             }
         }
-        markTypes(lts, node.leftNode);
-        markTypes(rts, node.rightNode);
+    }
+
+    /**
+     * Operand types should be already marked.
+     */
+    protected void mapBinaryTypes(TypeSet masterSet, ParseNode node) {
+        BinaryActionHandler<?, ?, ?, ?>[] hh = binaryHandlers(node, null);
         for(BinaryActionHandler<?, ?, ?, ?> h: hh) {
             if (masterSet.contains(h.returnType())) {
                 if (node.leftNode.typeMarkUp.contains(h.leftType()) && node.rightNode.typeMarkUp.contains(h.rightType())) {
@@ -474,13 +1163,13 @@ public class NanoParser<C> {
     }
 
     @SuppressWarnings("unchecked")
-    private Object applyTermAction(C parserContext, Class<?> type, ParseNode node) {
-        if (node.inferedHandler == null) {
+    private Object applyTermAction(C parserContext, Object handler, ParseNode node) {
+        if (handler == NO_HANDLER) {
             return node.token.tokenBody();
         }
         else {
             try {
-                TermActionHandler<C, ?> h = (TermActionHandler<C, ?>) node.inferedHandler;
+                TermActionHandler<C, ?> h = (TermActionHandler<C, ?>) handler;
                 return h.apply(parserContext, node.token);
             }
             catch(SemanticExpection e) {
@@ -491,29 +1180,24 @@ public class NanoParser<C> {
         }
     }
 
-    private Object applyUnaryAction(C parserContext, Class<?> type, ParseNode node) {
-        if (node.inferedHandler == null) {
-            return applyActions(parserContext, type, node.leftNode);
+    private Object applyUnaryAction(C parserContext, Object handler, ParseNode node, Object arg) {
+        try {
+            @SuppressWarnings("unchecked")
+            UnaryActionHandler<C, ?, Object> h = (UnaryActionHandler<C, ?, Object>) handler;
+            return h.apply(parserContext, node.token, arg);
         }
-        else {
-            try {
-                @SuppressWarnings("unchecked")
-                UnaryActionHandler<C, ?, Object> h = (UnaryActionHandler<C, ?, Object>) node.inferedHandler;
-                return h.apply(parserContext, node.token, applyActions(parserContext, type, node.leftNode));
-            }
-            catch(SemanticExpection e) {
-                Token tkn = e.getToken();
-                tkn = tkn == null ? node.token : tkn;
-                throw new ParserException(tkn, e.getMessage(), e);
-            }
+        catch(SemanticExpection e) {
+            Token tkn = e.getToken();
+            tkn = tkn == null ? node.token : tkn;
+            throw new ParserException(tkn, e.getMessage(), e);
         }
     }
 
-    private Object applyBinaryAction(C parserContext, Class<?> type, ParseNode node) {
+    private Object applyBinaryAction(C parserContext, Object handler, ParseNode node, Object left, Object right) {
         try {
             @SuppressWarnings("unchecked")
-            BinaryActionHandler<C, ?, Object, Object> h = (BinaryActionHandler<C, ?, Object, Object>) node.inferedHandler;
-            return h.apply(parserContext, node.token, applyActions(parserContext, type, node.leftNode), applyActions(parserContext, type, node.rightNode));
+            BinaryActionHandler<C, ?, Object, Object> h = (BinaryActionHandler<C, ?, Object, Object>) handler;
+            return h.apply(parserContext, node.token, left, right);
         }
         catch(SemanticExpection e) {
             Token tkn = e.getToken();
@@ -556,39 +1240,184 @@ public class NanoParser<C> {
     }
 
     Error errorConversion(Token token, int bestParsed, Class<?> targetType, Class<?> sourceType) {
-        ConversionError error = new ConversionError(token, targetType, sourceType);
+        ConversionError error = session().conversionErrors.next();
+        error.init(token, targetType, sourceType);
         error.bestProgress = bestParsed;
         return error;
     }
 
     Error errorOperation(Token token, int bestParsed, Class<?> targetType, String opId) {
-        OperationError error = new OperationError(token, targetType, opId);
+        OperationError error = session().operationErrors.next();
+        error.init(token, targetType, opId);
         error.bestProgress = bestParsed;
         return error;
     }
 
+    private static final Object NO_HANDLER = new Object();
+
+    /**
+     * Eviction policy of compiled expression cache.
+     */
+    public enum CacheEviction {
+        /** Least recently used expression is evicted */
+        LRU,
+        /** Least frequently used expression is evicted */
+        LFU,
+    }
+
+    private static class PlanKey {
+
+        final String text;
+        final Class<?> type;
+
+        public PlanKey(String text, Class<?> type) {
+            this.text = text;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * text.hashCode() + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey that = (PlanKey) obj;
+            return type == that.type && text.equals(that.text);
+        }
+    }
+
+    /**
+     * Evaluator tree is immutable, so it is safe to share.
+     */
+    class BoundExpression<T> implements CompiledExpression<C, T> {
+
+        private final Class<T> type;
+        private final Evaluator<C> root;
+
+        public BoundExpression(Class<T> type, Evaluator<C> root) {
+            this.type = type;
+            this.root = root;
+        }
+
+        Evaluator<C> root() {
+            return root;
+        }
+
+        @Override
+        public T eval(C parserContext) {
+            return type.cast(root.eval(parserContext));
+        }
+    }
+
+    private static class InferenceFrame {
+
+        Class<?> type;
+        ParseNode node;
+        int bestParsed;
+        /** Handler overloads, index of one being tried */
+        Object[] handlers;
+        int next;
+        /** Child inference is requested */
+        boolean awaiting;
+        /** Left operand is resolved, right one is being inferred */
+        boolean rightOperand;
+        Error bestError;
+
+        boolean done;
+        boolean memoized;
+        Error error;
+
+        void init(Class<?> type, ParseNode node, int bestParsed) {
+            this.type = type;
+            this.node = node;
+            this.bestParsed = bestParsed;
+            this.handlers = null;
+            this.next = 0;
+            this.awaiting = false;
+            this.rightOperand = false;
+            this.bestError = null;
+            this.done = false;
+            this.memoized = false;
+            this.error = null;
+        }
+
+        void finish(Error error) {
+            this.done = true;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Keys are recycled by {@link ParseSession}, key should not be
+     * changed while it is used in memo table.
+     */
+    private static class InferenceKey {
+
+        Class<?> type;
+        int progress;
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + progress;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof InferenceKey)) {
+                return false;
+            }
+            InferenceKey that = (InferenceKey) obj;
+            return type == that.type && progress == that.progress;
+        }
+    }
+
+    /**
+     * Message is formatted on demand, most errors are just
+     * discarded alternatives of type inference.
+     */
     protected static abstract class Error {
 
         Token token;
         String message;
         int bestProgress;
 
+        String message() {
+            if (message == null) {
+                message = formatMessage();
+            }
+            return message;
+        }
+
+        abstract String formatMessage();
+
         @Override
         public String toString() {
-            return message;
+            return message();
         }
     }
 
     private static class ConversionError extends Error {
 
+        /** Types of single conversion, lists are only used by merged errors */
+        private Class<?> target;
+        private Class<?> source;
         private List<String> targetType;
         private List<String> sourceType;
 
-        public ConversionError(Token token, Class<?> targetType, Class<?> sourceType) {
+        public ConversionError() {
+        }
+
+        void init(Token token, Class<?> targetType, Class<?> sourceType) {
             this.token = token;
-            this.targetType = Collections.singletonList(targetType.getSimpleName());
-            this.sourceType = Collections.singletonList(sourceType.getSimpleName());
-            this.message = "Required type '" + targetType.getSimpleName() + "' but found '" + sourceType.getSimpleName() + "'";
+            this.target = targetType;
+            this.source = sourceType;
+            this.targetType = null;
+            this.sourceType = null;
+            this.message = null;
             this.bestProgress = token.offset();
         }
 
@@ -597,22 +1426,22 @@ public class NanoParser<C> {
             this.bestProgress = token.offset();
             this.targetType = new ArrayList<String>();
             this.sourceType = new ArrayList<String>();
-            for (String c: a.sourceType) {
+            for (String c: a.sourceTypes()) {
                 if (!sourceType.contains(c)) {
                     sourceType.add(c);
                 }
             }
-            for (String c: b.sourceType) {
+            for (String c: b.sourceTypes()) {
                 if (!sourceType.contains(c)) {
                     sourceType.add(c);
                 }
             }
-            for (String c: a.targetType) {
+            for (String c: a.targetTypes()) {
                 if (!targetType.contains(c)) {
                     targetType.add(c);
                 }
             }
-            for (String c: b.targetType) {
+            for (String c: b.targetTypes()) {
                 if (!targetType.contains(c)) {
                     targetType.add(c);
                 }
@@ -620,12 +1449,25 @@ public class NanoParser<C> {
 
             Collections.sort(sourceType);
             Collections.sort(targetType);
+        }
+
+        private List<String> targetTypes() {
+            return targetType != null ? targetType : Collections.singletonList(target.getSimpleName());
+        }
+
+        private List<String> sourceTypes() {
+            return sourceType != null ? sourceType : Collections.singletonList(source.getSimpleName());
+        }
 
-            this.message = "Required " + (targetType.size() == 1 ? "type " : "one of [")
+        @Override
+        String formatMessage() {
+            if (targetType == null) {
+                return "Required type '" + target.getSimpleName() + "' but found '" + source.getSimpleName() + "'";
+            }
+            return "Required " + (targetType.size() == 1 ? "type " : "one of [")
                     + toString(targetType) + (targetType.size() == 1 ? "" : "]")
                     + (sourceType.size() == 1 ? " but found " : " but token can be interpreted as [")
                     + toString(sourceType) + (sourceType.size() == 1 ? "" : "]");
-            this.bestProgress = token.offset();
         }
 
         private String toString(List<String> typeList) {
@@ -643,33 +1485,51 @@ public class NanoParser<C> {
     private static class OperationError extends Error {
 
         private String opId;
+        /** Type of single operation, list is only used by merged errors */
+        private Class<?> target;
         private List<String> targetType;
 
-        public OperationError(Token token, Class<?> targetType, String opId) {
+        public OperationError() {
+        }
+
+        void init(Token token, Class<?> targetType, String opId) {
             this.token = token;
             this.opId = opId;
-            this.targetType = Collections.singletonList(targetType.getSimpleName());
-            this.message = "No action for '" + opId + "' producing '" + targetType.getSimpleName() + "'";
+            this.target = targetType;
+            this.targetType = null;
+            this.message = null;
             this.bestProgress = token.offset();
         }
 
         public OperationError(OperationError a, OperationError b) {
             this.token = a.token;
+            this.opId = a.opId;
             this.bestProgress = token.offset();
 
             this.targetType = new ArrayList<String>();
-            for (String c: a.targetType) {
+            for (String c: a.targetTypes()) {
                 if (!targetType.contains(c)) {
                     targetType.add(c);
                 }
             }
-            for (String c: b.targetType) {
+            for (String c: b.targetTypes()) {
                 if (!targetType.contains(c)) {
                     targetType.add(c);
                 }
             }
             Collections.sort(targetType);
-            this.message = "No action for '" + a.opId + "' producing " + (targetType.size() == 1 ? toString(targetType) : ("eigther of " + toString(targetType)));
+        }
+
+        private List<String> targetTypes() {
+            return targetType != null ? targetType : Collections.singletonList(target.getSimpleName());
+        }
+
+        @Override
+        String formatMessage() {
+            if (targetType == null) {
+                return "No action for '" + opId + "' producing '" + target.getSimpleName() + "'";
+            }
+            return "No action for '" + opId + "' producing " + (targetType.size() == 1 ? toString(targetType) : ("eigther of " + toString(targetType)));
         }
 
         private String toString(List<String> typeList) {
@@ -702,15 +1562,111 @@ public class NanoParser<C> {
         private List<ParseTableElement> table = new ArrayList<NanoParser.ParseTableElement>();
         private OperatorInfo glueToken;
         private TokenMatcher[] escapeToken;
-        private MultiMatcher skipPattern;
-
-        public ParseTable(SyntaticScope scope) {
+        private MultiMatcher skipTokens;
+        private TokenMatcher skipPattern;
+        private final LexerMode lexerMode;
+
+        /**
+         * Elements indexed by {@link CharUtils#classify(char)} of first character.
+         * All non ASCII chars share single class, so elements accepting
+         * any character are present in every slot.
+         */
+        private ParseTableElement[][] dispatch;
+        private CompiledLexer[] lexers;
+        private LiteralTrie[] literals;
+
+        public ParseTable(SyntaticScope scope, LexerMode lexerMode) {
+            this.lexerMode = lexerMode;
             scope.apply(this);
+            initSkipPattern();
+            initDispatch();
+        }
+
+        private void initSkipPattern() {
+            if (skipTokens != null) {
+                if (lexerMode.compiled) {
+                    TokenMatcher[] mm = skipTokens.matchers();
+                    TokenMatcher[][] patterns = new TokenMatcher[mm.length][];
+                    for(int i = 0; i != mm.length; ++i) {
+                        patterns[i] = new TokenMatcher[]{mm[i]};
+                    }
+                    skipPattern = new CompiledLexer(patterns).toMatcher(skipTokens.firstCharacter());
+                }
+                else {
+                    skipPattern = skipTokens;
+                }
+            }
+        }
+
+        private void initDispatch() {
+            CharSet[] firstChars = new CharSet[table.size()];
+            for(int i = 0; i != firstChars.length; ++i) {
+                firstChars[i] = table.get(i).matchers[0].firstCharacter();
+            }
+            // many slots share same candidate list, so they share arrays and lexers too
+            Map<List<ParseTableElement>, Integer> slots = new HashMap<List<ParseTableElement>, Integer>();
+            dispatch = new ParseTableElement[128][];
+            lexers = new CompiledLexer[128];
+            literals = new LiteralTrie[128];
+            for(int c = 0; c != dispatch.length; ++c) {
+                List<ParseTableElement> candidates = new ArrayList<ParseTableElement>();
+                for(int i = 0; i != firstChars.length; ++i) {
+                    // declaration order defines priority
+                    if (firstChars[i].bit(c)) {
+                        candidates.add(table.get(i));
+                    }
+                }
+                Integer slot = slots.get(candidates);
+                if (slot != null) {
+                    dispatch[c] = dispatch[slot];
+                    lexers[c] = lexers[slot];
+                    literals[c] = literals[slot];
+                }
+                else {
+                    slots.put(candidates, c);
+                    dispatch[c] = candidates.toArray(new ParseTableElement[candidates.size()]);
+                    TokenMatcher[][] patterns = new TokenMatcher[dispatch[c].length][];
+                    for(int i = 0; i != patterns.length; ++i) {
+                        patterns[i] = dispatch[c][i].matchers;
+                    }
+                    LiteralTrie trie = new LiteralTrie(patterns, lexerMode.longestLiteral);
+                    if (trie.hasLiterals()) {
+                        literals[c] = trie;
+                        // literals are resolved by trie
+                        for(int i = 0; i != patterns.length; ++i) {
+                            if (trie.isLiteral(i)) {
+                                patterns[i] = null;
+                            }
+                        }
+                    }
+                    if (lexerMode.compiled && patterns.length > 0) {
+                        lexers[c] = new CompiledLexer(patterns);
+                    }
+                }
+            }
+        }
+
+        public ParseTableElement[] candidates(char ch) {
+            return dispatch[CharUtils.classify(ch)];
+        }
+
+        /**
+         * @return compiled lexer for candidates or <code>null</code> if not in compiled lexer mode
+         */
+        public CompiledLexer lexer(char ch) {
+            return lexers[CharUtils.classify(ch)];
+        }
+
+        /**
+         * @return literal trie for candidates or <code>null</code> if there are no literal candidates
+         */
+        public LiteralTrie literals(char ch) {
+            return literals[CharUtils.classify(ch)];
         }
 
         @Override
         public void addEnclosing(TokenMatcher[] matchers, OperatorInfo op, OperatorInfo prefixOp, boolean optionalPrefix, SyntaticScope perfixedNestedScope, SyntaticScope normalNestedScope) {
-            ParseTableElement e = new ParseTableElement(matchers);
+            ParseTableElement e = new ParseTableElement(matchers, lexerMode);
             e.operatorInfo = op;
             e.enclosing = true;
             e.psubscope = perfixedNestedScope;
@@ -730,7 +1686,7 @@ public class NanoParser<C> {
 
         @Override
         public void addOperator(TokenMatcher[] matchers, OperatorInfo op) {
-            ParseTableElement e = new ParseTableElement(matchers);
+            ParseTableElement e = new ParseTableElement(matchers, lexerMode);
             e.operatorInfo = op;
             table.add(e);
         }
@@ -745,7 +1701,7 @@ public class NanoParser<C> {
 
         @Override
         public void addToken(TokenMatcher[] tmatcher, OperatorInfo op, OperatorInfo implicitPrefix, OperatorInfo implicitPostfix) {
-            ParseTableElement e = new ParseTableElement(tmatcher);
+            ParseTableElement e = new ParseTableElement(tmatcher, lexerMode);
             e.operatorInfo = op;
             e.term = true;
             if (implicitPrefix != null) {
@@ -761,12 +1717,230 @@ public class NanoParser<C> {
 
         @Override
         public void addSkipToken(TokenMatcher pattern) {
-            if (skipPattern != null) {
-                skipPattern = skipPattern.append(pattern);
+            if (skipTokens != null) {
+                skipTokens = skipTokens.append(pattern);
             }
             else {
-                skipPattern = new MultiMatcher(pattern);
+                skipTokens = new MultiMatcher(pattern);
+            }
+        }
+    }
+
+    private static class ParseFrame {
+
+        ParseTable table;
+        String eoeToken;
+        /** Enclosure node waiting for content of this scope */
+        ParseNode enclosure;
+        final ParserState parser = new ParserState();
+        ParseNode result;
+
+        void init(ParseTable table, String eoeToken, ParseNode enclosure) {
+            this.table = table;
+            this.eoeToken = eoeToken;
+            this.enclosure = enclosure;
+            this.parser.stack.clear();
+            this.result = null;
+        }
+    }
+
+    /**
+     * Structures of single parse, recycled by next parse on same thread.
+     * Session is reset once parse is complete, so nothing allocated
+     * from session should be retained after that.
+     */
+    private static class ParseSession {
+
+        /** Sessions grown by large expressions are not retained */
+        private static final int MAX_RETAINED_NODES = 4 << 10;
+
+        private final SemanticActionSolver typeSolver;
+        /** Session interrupted by nested parse */
+        ParseSession outer;
+        boolean active;
+
+        final Pool<ParseNode> nodes = new Pool<ParseNode>() {
+            @Override
+            protected ParseNode create() {
+                return new ParseNode();
+            }
+
+            @Override
+            protected void clear(ParseNode node) {
+                node.reset();
+            }
+        };
+
+        final Pool<TypeSet> typeSets = new Pool<TypeSet>() {
+            @Override
+            protected TypeSet create() {
+                return typeSolver.setOf();
+            }
+
+            @Override
+            protected void clear(TypeSet ts) {
+                ts.clear();
+            }
+        };
+
+        final Pool<ParseFrame> frames = new Pool<ParseFrame>() {
+            @Override
+            protected ParseFrame create() {
+                return new ParseFrame();
+            }
+
+            @Override
+            protected void clear(ParseFrame frame) {
+                frame.init(null, null, null);
+            }
+        };
+
+        final Pool<InferenceFrame> inferences = new Pool<InferenceFrame>() {
+            @Override
+            protected InferenceFrame create() {
+                return new InferenceFrame();
+            }
+
+            @Override
+            protected void clear(InferenceFrame frame) {
+                frame.init(null, null, 0);
+            }
+        };
+
+        final Pool<InferenceKey> keys = new Pool<InferenceKey>() {
+            @Override
+            protected InferenceKey create() {
+                return new InferenceKey();
+            }
+        };
+
+        final Pool<ConversionError> conversionErrors = new Pool<ConversionError>() {
+            @Override
+            protected ConversionError create() {
+                return new ConversionError();
             }
+
+            @Override
+            protected void clear(ConversionError error) {
+                error.token = null;
+            }
+        };
+
+        final Pool<OperationError> operationErrors = new Pool<OperationError>() {
+            @Override
+            protected OperationError create() {
+                return new OperationError();
+            }
+
+            @Override
+            protected void clear(OperationError error) {
+                error.token = null;
+            }
+        };
+
+        /** Lookup key for memo tables */
+        private final InferenceKey probe = new InferenceKey();
+
+        final List<ParseFrame> frameStack = new ArrayList<ParseFrame>();
+        final List<InferenceFrame> inferenceStack = new ArrayList<InferenceFrame>();
+        final List<ParseNode> nodeList = new ArrayList<ParseNode>();
+        final List<ParseNode> nodeStack = new ArrayList<ParseNode>();
+        final List<Class<?>> typeList = new ArrayList<Class<?>>();
+        final List<Class<?>> typeStack = new ArrayList<Class<?>>();
+        final List<TypeSet> typeSetList = new ArrayList<TypeSet>();
+        final List<Object> values = new ArrayList<Object>();
+
+        public ParseSession(SemanticActionSolver typeSolver) {
+            this.typeSolver = typeSolver;
+        }
+
+        public ParseNode node() {
+            return nodes.next();
+        }
+
+        public TypeSet typeSet() {
+            return typeSets.next();
+        }
+
+        public ParseFrame frame(ParseTable table, String eoeToken, ParseNode enclosure) {
+            ParseFrame frame = frames.next();
+            frame.init(table, eoeToken, enclosure);
+            return frame;
+        }
+
+        public InferenceFrame inference(Class<?> type, ParseNode node, int bestParsed) {
+            InferenceFrame frame = inferences.next();
+            frame.init(type, node, bestParsed);
+            return frame;
+        }
+
+        public InferenceKey probe(Class<?> type, int progress) {
+            probe.type = type;
+            probe.progress = progress;
+            return probe;
+        }
+
+        public InferenceKey key(Class<?> type, int progress) {
+            InferenceKey key = keys.next();
+            key.type = type;
+            key.progress = progress;
+            return key;
+        }
+
+        public boolean isOversized() {
+            return nodes.size() > MAX_RETAINED_NODES;
+        }
+
+        public void reset() {
+            nodes.reset();
+            typeSets.reset();
+            frames.reset();
+            inferences.reset();
+            keys.reset();
+            conversionErrors.reset();
+            operationErrors.reset();
+            probe.type = null;
+            frameStack.clear();
+            inferenceStack.clear();
+            nodeList.clear();
+            nodeStack.clear();
+            typeList.clear();
+            typeStack.clear();
+            typeSetList.clear();
+            values.clear();
+        }
+    }
+
+    /**
+     * Arena of recycled objects, all objects are released at once by {@link #reset()}.
+     */
+    private static abstract class Pool<T> {
+
+        private final List<T> items = new ArrayList<T>();
+        private int used;
+
+        public T next() {
+            if (used == items.size()) {
+                items.add(create());
+            }
+            return items.get(used++);
+        }
+
+        public int size() {
+            return items.size();
+        }
+
+        public void reset() {
+            for(int i = 0; i != used; ++i) {
+                clear(items.get(i));
+            }
+            used = 0;
+        }
+
+        protected abstract T create();
+
+        protected void clear(T item) {
+            // nothing to release by default
         }
     }
 
@@ -920,6 +2094,17 @@ public class NanoParser<C> {
         }
     }
 
+    private static class LexerMode {
+
+        final boolean compiled;
+        final boolean longestLiteral;
+
+        public LexerMode(boolean compiled, boolean longestLiteral) {
+            this.compiled = compiled;
+            this.longestLiteral = longestLiteral;
+        }
+    }
+
     private static class ParseTableElement {
 
         TokenMatcher[] matchers;
@@ -933,27 +2118,34 @@ public class NanoParser<C> {
         boolean optionalPostfix; // if true, postfix operation can be omitted
         SyntaticScope psubscope;
         SyntaticScope nsubscope;
-        ParseTable psubtable;
-        ParseTable nsubtable;
-
-        public ParseTableElement(TokenMatcher[] matchers) {
+        // lazily initialized, racing initialization would produce equivalent tables
+        volatile ParseTable psubtable;
+        volatile ParseTable nsubtable;
+        LexerMode lexerMode;
+        // index of operator in action dispatcher, racing initialization would produce same value
+        int opIndex = ParseNode.UNRESOLVED;
+
+        public ParseTableElement(TokenMatcher[] matchers, LexerMode lexerMode) {
             this.matchers = matchers;
+            this.lexerMode = lexerMode;
         }
 
-        public synchronized ParseTable subtable(boolean implPrefix) {
+        public ParseTable subtable(boolean implPrefix) {
             if (implPrefix) {
-                if (psubtable == null) {
-                    psubtable = new ParseTable(psubscope);
+                ParseTable t = psubtable;
+                if (t == null) {
+                    psubtable = t = new ParseTable(psubscope, lexerMode);
                 }
 
-                return psubtable;
+                return t;
             }
             else {
-                if (nsubtable == null) {
-                    nsubtable = new ParseTable(nsubscope);
+                ParseTable t = nsubtable;
+                if (t == null) {
+                    nsubtable = t = new ParseTable(nsubscope, lexerMode);
                 }
 
-                return nsubtable;
+                return t;
             }
         }
 
@@ -973,10 +2165,14 @@ public class NanoParser<C> {
 
     protected static class ParseNode {
 
+        static final int UNRESOLVED = -2;
+
         Token token;
         int rank; // -1 is term rank
         ParseTableElement rule;
         OperatorInfo op;
+        /** Operator index in {@link IndexedActionHandler} */
+        int opIndex = UNRESOLVED;
         ParseNode leftNode;
         ParseNode rightNode;
 
@@ -986,34 +2182,73 @@ public class NanoParser<C> {
             return rank < 0;
         }
 
-        // used to cache handler chosen by type inference
-        Object inferedHandler;
+        void reset() {
+            token = null;
+            rank = 0;
+            rule = null;
+            op = null;
+            opIndex = UNRESOLVED;
+            leftNode = null;
+            rightNode = null;
+            typeMarkUp = null;
+            if (inferedHandlers != null) {
+                inferedHandlers.clear();
+            }
+            if (inferenceErrors != null) {
+                inferenceErrors.clear();
+            }
+        }
+
+        // handlers chosen by type inference per required type
+        Map<Class<?>, Object> inferedHandlers;
+        // failed type inference per required type and progress
+        Map<InferenceKey, Error> inferenceErrors;
 
         public int spanFrom() {
             int s = token.offset();
-            if (leftNode != null) {
-                s = Math.min(s, leftNode.spanFrom());
-            }
-            if (rightNode != null) {
-                s = Math.min(s, rightNode.spanFrom());
+            for(ParseNode node: postOrder(this)) {
+                s = Math.min(s, node.token.offset());
             }
             return s;
         }
 
         public int spanTo() {
-            int s = token.offset() + token.tokenBody().length();
-            if (leftNode != null) {
-                s = Math.max(s, leftNode.spanTo());
-            }
-            if (rightNode != null) {
-                s = Math.max(s, rightNode.spanTo());
+            int s = token.offset() + Tokens.bodySequence(token).length();
+            for(ParseNode node: postOrder(this)) {
+                s = Math.max(s, node.token.offset() + Tokens.bodySequence(node.token).length());
             }
             return s;
         }
 
         public String getSpan() {
             StringBuilder sb = new StringBuilder();
-            sb.append(token.source().subSequence(spanFrom(), spanTo()));
+            CharSequence source = token.source();
+            int from = spanFrom();
+            if (source instanceof StreamText && from < ((StreamText) source).start()) {
+                // text is already discarded, assemble span from token bodies
+                List<Token> tokens = new ArrayList<Token>();
+                for(ParseNode node: postOrder(this)) {
+                    tokens.add(node.token);
+                }
+                Collections.sort(tokens, new Comparator<Token>() {
+                    @Override
+                    public int compare(Token a, Token b) {
+                        return a.offset() - b.offset();
+                    }
+                });
+                int end = from;
+                for(Token t: tokens) {
+                    if (t.offset() >= end) {
+                        if (t.offset() > end) {
+                            sb.append(' ');
+                        }
+                        sb.append(t.tokenBody());
+                        end = t.offset() + t.tokenBody().length();
+                    }
+                }
+                return sb.toString();
+            }
+            sb.append(source.subSequence(from, spanTo()));
             return sb.toString();
         }
 
@@ -50,19 +50,33 @@ public class ParserException extends RuntimeException {
      * @return
      */
     public static String formatTokenExcertp(Token tkn, int lengthLimit) {
-        StringBuilder sb = new StringBuilder();
         CharSequence parseText = tkn.source();
-        int toffs = tkn.offset();
-        int ls = tkn.offset();
+        // streaming source may have discarded beginning of text
+        int start = parseText instanceof StreamText ? ((StreamText) parseText).start() : 0;
+        if (tkn.offset() < start) {
+            // token text is gone, only its body is available
+            return formatExcerpt(tkn.tokenBody(), 0, 0, lengthLimit);
+        }
+        return formatExcerpt(parseText, start, tkn.offset(), lengthLimit);
+    }
+
+    /**
+     * Formats excerpt of text line containing offset,
+     * chars before start are not accessed.
+     */
+    static String formatExcerpt(CharSequence parseText, int start, int offset, int lengthLimit) {
+        StringBuilder sb = new StringBuilder();
+        int toffs = offset;
+        int ls = offset;
         if (ls >= parseText.length()) {
             ls = parseText.length() - 1;
         }
-        boolean atEol = ls >= 0 && parseText.charAt(ls) == '\n';
+        boolean atEol = ls >= start && parseText.charAt(ls) == '\n';
         if (atEol) {
             --ls;
             --toffs;
         }
-        while(ls >= 0) {
+        while(ls >= start) {
             if (parseText.charAt(ls) != '\n') {
                 --ls;
             }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of compiled expressions.
+ * <br/>
+ * Lookups do not lock, recency and use count are tracked approximately
+ * by entry stamps. Eviction picks a victim from a sample of entries.
+ */
+class PlanCache<V> {
+
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final int maxSize;
+    private final NanoParser.CacheEviction eviction;
+    private final ConcurrentHashMap<Object, Entry<V>> entries = new ConcurrentHashMap<Object, Entry<V>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Logical clock, racy increments only make recency approximate */
+    private volatile long tick;
+    /** Walks over entries across evictions, so samples are not biased to table head, guarded by <code>this</code> */
+    private Iterator<Entry<V>> sampler;
+
+    public PlanCache(int maxSize, NanoParser.CacheEviction eviction) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size should be positive (" + maxSize + ")");
+        }
+        this.maxSize = maxSize;
+        this.eviction = eviction;
+    }
+
+    public V get(Object key) {
+        Entry<V> e = entries.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        else {
+            e.touch(nextTick());
+            hits.incrementAndGet();
+            return e.value;
+        }
+    }
+
+    public synchronized void put(Object key, V value) {
+        if (!entries.containsKey(key) && entries.size() >= maxSize) {
+            evict();
+        }
+        entries.put(key, new Entry<V>(key, value, nextTick()));
+    }
+
+    private long nextTick() {
+        return ++tick;
+    }
+
+    private void evict() {
+        int n = Math.min(EVICTION_SAMPLE, entries.size());
+        Entry<V> victim = null;
+        for(int i = 0; i != n; ++i) {
+            if (sampler == null || !sampler.hasNext()) {
+                sampler = entries.values().iterator();
+                if (!sampler.hasNext()) {
+                    break;
+                }
+            }
+            Entry<V> e = sampler.next();
+            if (victim == null || isBetterVictim(e, victim)) {
+                victim = e;
+            }
+        }
+        if (victim != null) {
+            entries.remove(victim.key, victim);
+        }
+    }
+
+    /**
+     * On equal use counts less recently used entry is evicted.
+     */
+    private boolean isBetterVictim(Entry<V> e, Entry<V> victim) {
+        if (eviction == NanoParser.CacheEviction.LFU && e.useCount != victim.useCount) {
+            return e.useCount < victim.useCount;
+        }
+        return e.stamp < victim.stamp;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private static class Entry<V> {
+
+        final Object key;
+        final V value;
+        volatile long stamp;
+        /** Racy increments, lost updates are tolerated */
+        volatile long useCount;
+
+        public Entry(Object key, V value, long stamp) {
+            this.key = key;
+            this.value = value;
+            this.stamp = stamp;
+        }
+
+        void touch(long now) {
+            stamp = now;
+            useCount = useCount + 1;
+        }
+    }
+}
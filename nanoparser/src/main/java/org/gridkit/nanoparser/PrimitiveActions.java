@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.BooleanUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.DoubleUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.LongUnaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.UnaryActionHandler;
+import org.gridkit.nanoparser.SematicActionSource.BinaryAction;
+import org.gridkit.nanoparser.SematicActionSource.Converter;
+import org.gridkit.nanoparser.SematicActionSource.TermAction;
+import org.gridkit.nanoparser.SematicActionSource.UnaryAction;
+
+/**
+ * Actions implementing primitive handler flavors, shared by {@link Actions}
+ * and {@link GeneratedActionSource}. Boxed <code>apply</code> delegates
+ * to primitive one, so action works with any evaluator.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class PrimitiveActions {
+
+    abstract static class Term<C, R> implements TermAction<C>, TermActionHandler<C, R> {
+
+        private final String opId;
+        private final Class<R> type;
+        private final Object reference;
+
+        Term(String opId, Class<R> type, Object reference) {
+            this.opId = opId;
+            this.type = type;
+            this.reference = reference;
+        }
+
+        @Override
+        public String opId() {
+            return opId;
+        }
+
+        @Override
+        public Class<R> returnType() {
+            return type;
+        }
+
+        @Override
+        public Object implemetationReference() {
+            return reference;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TermActionHandler<C, T> handler() {
+            return (TermActionHandler<C, T>) (TermActionHandler<C, ?>) this;
+        }
+
+        @Override
+        public String toString() {
+            return opId + " -> " + type.getSimpleName();
+        }
+    }
+
+    /**
+     * Unary operator or conversion, argument is of same type as result.
+     */
+    abstract static class Unary<C, R> implements UnaryAction<C>, Converter<C>, UnaryActionHandler<C, R, R> {
+
+        private final String opId;
+        private final Class<R> type;
+        private final Object reference;
+        Collection<Class<?>> convertibleArgTypes;
+
+        Unary(String opId, Class<R> type, Collection<Class<?>> convertibleArgTypes, Object reference) {
+            this.opId = opId;
+            this.type = type;
+            this.reference = reference;
+            this.convertibleArgTypes = convertibleArgTypes;
+        }
+
+        @Override
+        public String opId() {
+            return opId;
+        }
+
+        @Override
+        public Class<R> returnType() {
+            return type;
+        }
+
+        @Override
+        public Class<R> argType() {
+            return type;
+        }
+
+        @Override
+        public Class<?> inputType() {
+            return type;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleArgTypes() {
+            return convertibleArgTypes;
+        }
+
+        @Override
+        public Object implemetationReference() {
+            return reference;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T, A> UnaryActionHandler<C, T, A> handler() {
+            return (UnaryActionHandler<C, T, A>) (UnaryActionHandler<C, ?, ?>) this;
+        }
+
+        @Override
+        public String toString() {
+            return opId + " (" + type.getSimpleName() + ") -> " + type.getSimpleName();
+        }
+    }
+
+    /**
+     * Binary operator, both arguments are of same type as result.
+     */
+    abstract static class Binary<C, R> implements BinaryAction<C>, BinaryActionHandler<C, R, R, R> {
+
+        private final String opId;
+        private final Class<R> type;
+        private final Object reference;
+        Collection<Class<?>> convertibleLeftTypes;
+        Collection<Class<?>> convertibleRightTypes;
+
+        Binary(String opId, Class<R> type, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, Object reference) {
+            this.opId = opId;
+            this.type = type;
+            this.reference = reference;
+            this.convertibleLeftTypes = convertibleLeftTypes;
+            this.convertibleRightTypes = convertibleRightTypes;
+        }
+
+        @Override
+        public String opId() {
+            return opId;
+        }
+
+        @Override
+        public Class<R> returnType() {
+            return type;
+        }
+
+        @Override
+        public Class<R> leftType() {
+            return type;
+        }
+
+        @Override
+        public Class<R> rightType() {
+            return type;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleLeftTypes() {
+            return convertibleLeftTypes;
+        }
+
+        @Override
+        public Collection<Class<?>> convertibleRightTypes() {
+            return convertibleRightTypes;
+        }
+
+        @Override
+        public Object implemetationReference() {
+            return reference;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T, A, B> BinaryActionHandler<C, T, A, B> handler() {
+            return (BinaryActionHandler<C, T, A, B>) (BinaryActionHandler<C, ?, ?, ?>) this;
+        }
+
+        @Override
+        public String toString() {
+            return opId + " (" + type.getSimpleName() + ", " + type.getSimpleName() + ") -> " + type.getSimpleName();
+        }
+    }
+
+    static Collection<Class<?>> types(Class<?> type) {
+        return Collections.<Class<?>>singleton(type);
+    }
+
+    abstract static class IntTerm<C> extends Term<C, Integer> implements IntTermHandler<C> {
+
+        IntTerm(String opId, Object reference) {
+            super(opId, Integer.class, reference);
+        }
+
+        @Override
+        public Integer apply(C parserContext, Token token) {
+            return Integer.valueOf(applyInt(parserContext, token));
+        }
+    }
+
+    abstract static class IntUnary<C> extends Unary<C, Integer> implements IntUnaryHandler<C> {
+
+        IntUnary(String opId, Collection<Class<?>> convertibleArgTypes, Object reference) {
+            super(opId, Integer.class, convertibleArgTypes, reference);
+        }
+
+        @Override
+        public Integer apply(C parserContext, Token token, Integer arg) {
+            return Integer.valueOf(applyInt(parserContext, token, arg.intValue()));
+        }
+    }
+
+    abstract static class IntBinary<C> extends Binary<C, Integer> implements IntBinaryHandler<C> {
+
+        IntBinary(String opId, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, Object reference) {
+            super(opId, Integer.class, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        @Override
+        public Integer apply(C parserContext, Token token, Integer leftArg, Integer rightArg) {
+            return Integer.valueOf(applyInt(parserContext, token, leftArg.intValue(), rightArg.intValue()));
+        }
+    }
+
+    abstract static class LongTerm<C> extends Term<C, Long> implements LongTermHandler<C> {
+
+        LongTerm(String opId, Object reference) {
+            super(opId, Long.class, reference);
+        }
+
+        @Override
+        public Long apply(C parserContext, Token token) {
+            return Long.valueOf(applyLong(parserContext, token));
+        }
+    }
+
+    abstract static class LongUnary<C> extends Unary<C, Long> implements LongUnaryHandler<C> {
+
+        LongUnary(String opId, Collection<Class<?>> convertibleArgTypes, Object reference) {
+            super(opId, Long.class, convertibleArgTypes, reference);
+        }
+
+        @Override
+        public Long apply(C parserContext, Token token, Long arg) {
+            return Long.valueOf(applyLong(parserContext, token, arg.longValue()));
+        }
+    }
+
+    abstract static class LongBinary<C> extends Binary<C, Long> implements LongBinaryHandler<C> {
+
+        LongBinary(String opId, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, Object reference) {
+            super(opId, Long.class, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        @Override
+        public Long apply(C parserContext, Token token, Long leftArg, Long rightArg) {
+            return Long.valueOf(applyLong(parserContext, token, leftArg.longValue(), rightArg.longValue()));
+        }
+    }
+
+    abstract static class DoubleTerm<C> extends Term<C, Double> implements DoubleTermHandler<C> {
+
+        DoubleTerm(String opId, Object reference) {
+            super(opId, Double.class, reference);
+        }
+
+        @Override
+        public Double apply(C parserContext, Token token) {
+            return Double.valueOf(applyDouble(parserContext, token));
+        }
+    }
+
+    abstract static class DoubleUnary<C> extends Unary<C, Double> implements DoubleUnaryHandler<C> {
+
+        DoubleUnary(String opId, Collection<Class<?>> convertibleArgTypes, Object reference) {
+            super(opId, Double.class, convertibleArgTypes, reference);
+        }
+
+        @Override
+        public Double apply(C parserContext, Token token, Double arg) {
+            return Double.valueOf(applyDouble(parserContext, token, arg.doubleValue()));
+        }
+    }
+
+    abstract static class DoubleBinary<C> extends Binary<C, Double> implements DoubleBinaryHandler<C> {
+
+        DoubleBinary(String opId, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, Object reference) {
+            super(opId, Double.class, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        @Override
+        public Double apply(C parserContext, Token token, Double leftArg, Double rightArg) {
+            return Double.valueOf(applyDouble(parserContext, token, leftArg.doubleValue(), rightArg.doubleValue()));
+        }
+    }
+
+    abstract static class BooleanTerm<C> extends Term<C, Boolean> implements BooleanTermHandler<C> {
+
+        BooleanTerm(String opId, Object reference) {
+            super(opId, Boolean.class, reference);
+        }
+
+        @Override
+        public Boolean apply(C parserContext, Token token) {
+            return Boolean.valueOf(applyBoolean(parserContext, token));
+        }
+    }
+
+    abstract static class BooleanUnary<C> extends Unary<C, Boolean> implements BooleanUnaryHandler<C> {
+
+        BooleanUnary(String opId, Collection<Class<?>> convertibleArgTypes, Object reference) {
+            super(opId, Boolean.class, convertibleArgTypes, reference);
+        }
+
+        @Override
+        public Boolean apply(C parserContext, Token token, Boolean arg) {
+            return Boolean.valueOf(applyBoolean(parserContext, token, arg.booleanValue()));
+        }
+    }
+
+    abstract static class BooleanBinary<C> extends Binary<C, Boolean> implements BooleanBinaryHandler<C> {
+
+        BooleanBinary(String opId, Collection<Class<?>> convertibleLeftTypes, Collection<Class<?>> convertibleRightTypes, Object reference) {
+            super(opId, Boolean.class, convertibleLeftTypes, convertibleRightTypes, reference);
+        }
+
+        @Override
+        public Boolean apply(C parserContext, Token token, Boolean leftArg, Boolean rightArg) {
+            return Boolean.valueOf(applyBoolean(parserContext, token, leftArg.booleanValue(), rightArg.booleanValue()));
+        }
+    }
+}
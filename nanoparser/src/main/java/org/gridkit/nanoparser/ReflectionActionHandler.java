@@ -24,10 +24,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Use {@link ReflectionActionSource}
@@ -41,7 +41,7 @@ public abstract class ReflectionActionHandler<C> implements SemanticActionHandle
     protected List<MethodOpHandler> unaryHandlers = new ArrayList<MethodOpHandler>();
     protected List<MethodOpHandler> binaryHandlers = new ArrayList<MethodOpHandler>();
 
-    protected Map<List<Object>, MethodOpHandler[]> lookupCache = new HashMap<List<Object>, MethodOpHandler[]>();
+    protected Map<List<Object>, MethodOpHandler[]> lookupCache = new ConcurrentHashMap<List<Object>, MethodOpHandler[]>();
 
     public ReflectionActionHandler() {
         initMethodTables();
@@ -233,6 +233,8 @@ public abstract class ReflectionActionHandler<C> implements SemanticActionHandle
     protected @interface Source {
     }
 
+    private static final Object[] NO_ARGS = new Object[0];
+
     private static class MethodOpHandler implements TermActionHandler<Object, Object>, UnaryActionHandler<Object, Object, Object>, BinaryActionHandler<Object, Object, Object, Object> {
 
         private final ReflectionActionHandler<?> host;
@@ -242,6 +244,7 @@ public abstract class ReflectionActionHandler<C> implements SemanticActionHandle
         private Class<Object> rightType;
 
         private final Method method;
+        private final int paramCount;
         private final ArgConvertor leftConvertor;
         private final ArgConvertor rightConvertor;
 
@@ -271,6 +274,7 @@ public abstract class ReflectionActionHandler<C> implements SemanticActionHandle
             this.host = host;
             this.id = id;
             this.method = m;
+            this.paramCount = m.getParameterTypes().length;
             this.returnType = (Class<Object>) returnType;
 
             this.leftConvertor = leftCnv;
@@ -603,7 +607,7 @@ public abstract class ReflectionActionHandler<C> implements SemanticActionHandle
                 Object left = leftConvertor != null ? leftConvertor.convert(parserContext, token, inleft) : inleft;
                 Object right = rightConvertor != null ? rightConvertor.convert(parserContext, token, inright) : inright;
 
-                Object[] args = new Object[method.getParameterTypes().length];
+                Object[] args = paramCount == 0 ? NO_ARGS : new Object[paramCount];
                 if (contextArg >= 0) {
                     args[contextArg] = parserContext;
                 }
@@ -34,6 +34,15 @@ import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
 import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
 import org.gridkit.nanoparser.SemanticActionHandler.UnaryActionHandler;
 
+/**
+ * Action source built from annotated methods of subclass.
+ * <br/>
+ * Methods are discovered on first call of any <code>enum*()</code> method,
+ * not in constructor, so invalid method signature is reported by
+ * {@link IllegalArgumentException} thrown at that point (usually when
+ * parser is created). Annotation processor from <code>nanoparser-apt</code>
+ * reports same errors at compile time.
+ */
 public abstract class ReflectionActionSource<C> implements SematicActionSource<C> {
 
     protected final Map<TypedId, TermAction<C>> terms = new HashMap<TypedId, TermAction<C>>();
@@ -41,31 +50,66 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
     protected final List<UnaryAction<C>> unaries = new ArrayList<UnaryAction<C>>();
     protected final List<BinaryAction<C>> binaries = new ArrayList<BinaryAction<C>>();
 
+    private volatile boolean initialized;
+
+    /**
+     * Methods are scanned on first use, so instance wrapped by
+     * source generated with <code>nanoparser-apt</code> is not
+     * scanned at all.
+     */
     public ReflectionActionSource() {
-        initMethodTables();
     }
 
     @Override
     public Collection<TermAction<C>> enumTerms() {
+        ensureInitialized();
         return terms.values();
     }
 
     @Override
     public Collection<UnaryAction<C>> enumUnaries() {
+        ensureInitialized();
         return unaries;
     }
 
     @Override
     public Collection<BinaryAction<C>> enumBinaries() {
+        ensureInitialized();
         return binaries;
     }
 
     @Override
     public Collection<Converter<C>> enumConverters() {
+        ensureInitialized();
         return convertors;
     }
 
+    private void ensureInitialized() {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    initMethodTables();
+                    initialized = true;
+                }
+            }
+        }
+    }
+
     private void initMethodTables() {
+        // actions added by subclass constructor should follow annotated methods
+        List<Converter<C>> extraConvertors = new ArrayList<Converter<C>>(convertors);
+        List<UnaryAction<C>> extraUnaries = new ArrayList<UnaryAction<C>>(unaries);
+        List<BinaryAction<C>> extraBinaries = new ArrayList<BinaryAction<C>>(binaries);
+        convertors.clear();
+        unaries.clear();
+        binaries.clear();
+        initAnnotatedMethods();
+        convertors.addAll(extraConvertors);
+        unaries.addAll(extraUnaries);
+        binaries.addAll(extraBinaries);
+    }
+
+    private void initAnnotatedMethods() {
         for(Method m: this.getClass().getMethods()) {
             if (m.getAnnotation(Term.class) != null) {
                 initTermMethod(m);
@@ -84,9 +128,10 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
 
     private void initTermMethod(Method m) {
         String id = m.getAnnotation(Term.class).value();
-        MethodOpHandler h = new MethodOpHandler(this, id, m, m.getReturnType());
+        MethodOpHandler h = new MethodOpHandler(this, id, m, ActionSupport.boxed(m.getReturnType()));
         h.initTermArguments();
-        Class<?> target = m.getReturnType();
+        h.initArgPlan();
+        Class<?> target = ActionSupport.boxed(m.getReturnType());
         if (terms.containsKey(typedId(id, target))) {
             throw new IllegalArgumentException("Ambiguous term '" + id + "' handler for type " + target.getSimpleName());
         }
@@ -97,34 +142,41 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
         if (m.getParameterTypes().length != 1) {
             throw new IllegalArgumentException("@Conversion method '" + m.getName() + "' should have 1 argument");
         }
-        if (!Object.class.isAssignableFrom(m.getReturnType())) {
-            throw new IllegalArgumentException("@Conversion method '" + m.getName() + "' should have reference return type");
+        if (!Object.class.isAssignableFrom(ActionSupport.boxed(m.getReturnType()))) {
+            throw new IllegalArgumentException("@Conversion method '" + m.getName() + "' should have reference or int/long/double/boolean return type");
         }
-        MethodOpHandler h = new MethodOpHandler(this, "", m, m.getReturnType());
+        MethodOpHandler h = new MethodOpHandler(this, "", m, ActionSupport.boxed(m.getReturnType()));
         h.initConversionArguments();
+        h.initArgPlan();
 
         convertors.add(new CAction<C>(h));
     }
 
     private void initUnaryMethod(Method m) {
         String id = m.getAnnotation(Unary.class).value();
-        if (!Object.class.isAssignableFrom(m.getReturnType())) {
-            throw new IllegalArgumentException("@Unary method '" + m.getName() + "' should have reference return type");
+        if (!Object.class.isAssignableFrom(ActionSupport.boxed(m.getReturnType()))) {
+            throw new IllegalArgumentException("@Unary method '" + m.getName() + "' should have reference or int/long/double/boolean return type");
         }
-        MethodOpHandler h = new MethodOpHandler(this, id, m, m.getReturnType());
+        MethodOpHandler h = new MethodOpHandler(this, id, m, ActionSupport.boxed(m.getReturnType()));
         h.initUnaryArgumnets();
+        h.initArgPlan();
 
         unaries.add(new UAction<C>(h));
     }
 
     private void initBinaryMethod(Method m) {
         String id = m.getAnnotation(Binary.class).value();
-        MethodOpHandler h = new MethodOpHandler(this, id, m, m.getReturnType());
+        MethodOpHandler h = new MethodOpHandler(this, id, m, ActionSupport.boxed(m.getReturnType()));
         h.initBinaryArguments();
+        h.initArgPlan();
 
         binaries.add(new BAction<C>(h));
     }
 
+    /**
+     * <code>int</code>, <code>long</code>, <code>double</code> and <code>boolean</code>
+     * in method signatures are seen by type inference as their wrapper types.
+     */
     private TypedId typedId(String id, Class<?> type) {
         return new TypedId(type, id);
     }
@@ -304,6 +356,14 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
         }
     }
 
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static final int ARG_CONTEXT = -1;
+    private static final int ARG_BODY = -2;
+    private static final int ARG_BODY_VIEW = -3;
+    private static final int ARG_LEFT = -4;
+    private static final int ARG_RIGHT = -5;
+
     private static class MethodOpHandler implements TermActionHandler<Object, Object>, UnaryActionHandler<Object, Object, Object>, BinaryActionHandler<Object, Object, Object, Object> {
 
         private final ReflectionActionSource<?> host;
@@ -319,9 +379,15 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
         private int contextArg = -1;
         private int[] tokenArg = {};
         private int tokenBodyArg = -1;
+        private boolean tokenBodyView; // CharSequence parameter is receiving body without copying
         private int leftArg = -1;
         private int rightArg = -1;
 
+        /** Source of each method argument, see ARG_* constants, non negative values are token indexes */
+        private int[] argPlan;
+        /** Per thread argument array, reused across calls */
+        private ThreadLocal<Object[]> argBuffer;
+
         @SuppressWarnings("unchecked")
         protected MethodOpHandler(ReflectionActionSource<?> host, String id, Method m, Class<?> returnType) {
             this.host = host;
@@ -386,14 +452,15 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
                         throw methodError("Method '" + method.getName() + "' parameter annotated @Source should have type Token");
                     }
                 }
-                else if (paramTypes[i] == String.class) {
+                else if (paramTypes[i] == String.class || paramTypes[i] == CharSequence.class) {
                     if (tokenBodyArg >= 0) {
                         throw methodError("Method '" + method.getName() + "' should have zero or one unannotated argument");
                     }
                     tokenBodyArg = i;
+                    tokenBodyView = paramTypes[i] == CharSequence.class;
                 }
                 else {
-                    throw methodError("Method '" + method.getName() + "' term input arg should be of type String");
+                    throw methodError("Method '" + method.getName() + "' term input arg should be of type String or CharSequence");
                 }
             }
         }
@@ -434,9 +501,9 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
                         throw methodError("Method '" + method.getName() + "' - @Conversion method should have one input argument");
                     }
                     leftArg = i;
-                    leftType = (Class<Object>)paramTypes[i];
+                    leftType = (Class<Object>)ActionSupport.boxed(paramTypes[i]);
                     if (leftType.isPrimitive()) {
-                        throw methodError("Method '" + method.getName() + "' - @Conversion method should have one input argument of reference type");
+                        throw methodError("Method '" + method.getName() + "' - @Conversion method should have one input argument of reference type or int/long/double/boolean");
                     }
                 }
             }
@@ -478,9 +545,9 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
                         throw methodError("Method '" + method.getName() + "' - @Unary method should have one input argument");
                     }
                     leftArg = i;
-                    leftType = (Class<Object>)paramTypes[i];
+                    leftType = (Class<Object>)ActionSupport.boxed(paramTypes[i]);
                     if (leftType.isPrimitive()) {
-                        throw methodError("Method '" + method.getName() + "' - @Unary method should have one input argument of reference type");
+                        throw methodError("Method '" + method.getName() + "' - @Unary method should have one input argument of reference type or int/long/double/boolean");
                     }
                 }
             }
@@ -516,16 +583,16 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
                     }
                     if (leftArg < 0) {
                         leftArg = i;
-                        leftType = (Class<Object>)paramTypes[i];
+                        leftType = (Class<Object>)ActionSupport.boxed(paramTypes[i]);
                         if (leftType.isPrimitive()) {
-                            throw methodError("Method '" + method.getName() + "' - @Binary method should have two input arguments of reference type");
+                            throw methodError("Method '" + method.getName() + "' - @Binary method should have two input arguments of reference type or int/long/double/boolean");
                         }
                     }
                     else {
                         rightArg = i;
-                        rightType = (Class<Object>)paramTypes[i];
+                        rightType = (Class<Object>)ActionSupport.boxed(paramTypes[i]);
                         if (rightType.isPrimitive()) {
-                            throw methodError("Method '" + method.getName() + "' - @Binary method should have two input arguments of reference type");
+                            throw methodError("Method '" + method.getName() + "' - @Binary method should have two input arguments of reference type or int/long/double/boolean");
                         }
                     }
                 }
@@ -541,7 +608,7 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
         private Collection<Class<?>> initConverters(int arg) {
             Convertible cc = getConvertibleAnnotation(method.getParameterAnnotations()[arg]);
             if (cc == null) {
-                return Collections.<Class<?>>singleton(method.getParameterTypes()[arg]);
+                return Collections.<Class<?>>singleton(ActionSupport.boxed(method.getParameterTypes()[arg]));
             }
             else {
                 if (cc.value().length == 0) {
@@ -549,7 +616,7 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
                 }
                 else {
                     Class<?>[] set = new Class<?>[cc.value().length + 1];
-                    set[0] = method.getParameterTypes()[arg];
+                    set[0] = ActionSupport.boxed(method.getParameterTypes()[arg]);
                     int n = 1;
                     for(Class<?> c: cc.value()) {
                         set[n++] = c;
@@ -615,63 +682,81 @@ public abstract class ReflectionActionSource<C> implements SematicActionSource<C
             return apply(parserContext, token, arg, null);
         }
 
+        /**
+         * Argument layout is resolved once, so invocation does not
+         * need to inspect method signature.
+         */
+        public void initArgPlan() {
+            int[] plan = new int[method.getParameterTypes().length];
+            if (contextArg >= 0) {
+                plan[contextArg] = ARG_CONTEXT;
+            }
+            for(int i = 0; i != tokenArg.length; ++i) {
+                plan[tokenArg[i]] = i;
+            }
+            if (tokenBodyArg >= 0) {
+                plan[tokenBodyArg] = tokenBodyView ? ARG_BODY_VIEW : ARG_BODY;
+            }
+            if (leftArg >= 0) {
+                plan[leftArg] = ARG_LEFT;
+            }
+            if (rightArg >= 0) {
+                plan[rightArg] = ARG_RIGHT;
+            }
+            argPlan = plan;
+            final int argCount = plan.length;
+            argBuffer = new ThreadLocal<Object[]>() {
+                @Override
+                protected Object[] initialValue() {
+                    return argCount == 0 ? NO_ARGS : new Object[argCount];
+                }
+            };
+        }
+
+        /**
+         * Argument array is reused by nested calls on same thread. This is safe,
+         * as {@link Method#invoke(Object, Object...)} unpacks arguments before
+         * target method is entered.
+         */
         @Override
-        public Object apply(Object parserContext, Token token, Object inleft, Object inright) {
+        public Object apply(Object parserContext, Token token, Object left, Object right) {
+            int[] plan = argPlan;
+            Object[] args = argBuffer.get();
             try {
-                Object left = inleft;
-                Object right = inright;
-
-                Object[] args = new Object[method.getParameterTypes().length];
-                if (contextArg >= 0) {
-                    args[contextArg] = parserContext;
-                }
-                applyToken(token, args);
-                if (tokenBodyArg >= 0) {
-                    args[tokenBodyArg] = token.tokenBody();
-                }
-                if (leftArg >= 0) {
-                    args[leftArg] = left;
-                }
-                if (rightArg >= 0) {
-                    args[rightArg] = right;
+                for(int i = 0; i != plan.length; ++i) {
+                    switch(plan[i]) {
+                    case ARG_CONTEXT: args[i] = parserContext; break;
+                    case ARG_BODY: args[i] = token.tokenBody(); break;
+                    case ARG_BODY_VIEW: args[i] = Tokens.bodySequence(token); break;
+                    case ARG_LEFT: args[i] = left; break;
+                    case ARG_RIGHT: args[i] = right; break;
+                    default: args[i] = token(token, plan[i]);
+                    }
                 }
-                return postProcess(method.invoke(host, args), token);
+                return ActionSupport.postProcess(method.invoke(host, args), token);
             } catch (InvocationTargetException e) {
                 throw throwUnchecked(e.getTargetException());
             } catch (IllegalAccessException e) {
                 throw new RuntimeException(e);
+            } finally {
+                // arguments should not be retained after the call
+                Arrays.fill(args, null);
             }
         }
 
-        private Object postProcess(Object v, Token token) {
-            if (v instanceof TokenAware) {
-                ((TokenAware) v).setToken(token);
-            }
-            return v;
-        }
-
-        private void applyToken(Token tkn, Object[] args) {
+        /**
+         * @return n-th of @Source arguments, several @Source arguments receive sub tokens
+         */
+        private Token token(Token tkn, int n) {
             if (tokenArg.length == 1) {
-                args[tokenArg[0]] = tkn;
-            }
-            else if (tokenArg.length > 1) {
-                if (tkn instanceof MultiToken) {
-                    Token[] tkns = ((MultiToken) tkn).tokens();
-                    for(int i = 0; i != tokenArg.length; ++i) {
-                        if (i < tkns.length) {
-                            args[tokenArg[i]] = tkns[i];
-                        }
-                        else {
-                            args[tokenArg[i]] = null;
-                        }
-                    }
-                }
-                else {
-                    args[tokenArg[0]] = tkn;
-                    for(int i = 1; i < tokenArg.length; ++i) {
-                        args[tokenArg[i]] = null;
-                    }
-                }
+                return tkn;
+            }
+            else if (tkn instanceof MultiToken) {
+                Token[] tkns = ((MultiToken) tkn).tokens();
+                return n < tkns.length ? tkns[n] : null;
+            }
+            else {
+                return n == 0 ? tkn : null;
             }
         }
 
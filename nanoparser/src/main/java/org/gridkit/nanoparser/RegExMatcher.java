@@ -5,29 +5,159 @@ import java.util.regex.Pattern;
 
 class RegExMatcher implements TokenMatcher {
 
-    private final Matcher matcher;
+    private static final String META = "\\[](){}.*+?^$|";
+
+    /** Non ASCII whitespace chars share class with ASCII whitespace */
+    private static final char[] NON_ASCII_WHITESPACE = nonAsciiWhitespace();
+
+    private final Pattern pattern;
+    private final ThreadLocal<Matcher> matcher;
+    private final String prefix;
+    private final CharSet firstChar;
 
     public RegExMatcher(String pattern) {
-        matcher = Pattern.compile(pattern).matcher("");
+        this.pattern = Pattern.compile(pattern);
+        this.matcher = matcherPool(this.pattern);
+        this.prefix = literalPrefix(pattern);
+        this.firstChar = prefix.length() > 0 ? new CharSet(prefix.charAt(0)) : firstCharacter(this.pattern);
+    }
+
+    Pattern pattern() {
+        return pattern;
+    }
+
+    /**
+     * @return literal text every match starts with, may be empty
+     */
+    String literalPrefix() {
+        return prefix;
     }
 
     @Override
     public CharSet firstCharacter() {
-        return CharSet.ALL;
+        return firstChar;
     }
 
     @Override
     public int match(CharSequence cs, int offset) {
-        matcher.reset(cs);
-        matcher.region(offset, cs.length());
-        if (matcher.lookingAt()) {
-            return matcher.end() - matcher.start();
+        if (prefix.length() > 0) {
+            if (offset + prefix.length() > cs.length()) {
+                return -1;
+            }
+            for(int i = 0; i != prefix.length(); ++i) {
+                if (cs.charAt(offset + i) != prefix.charAt(i)) {
+                    return -1;
+                }
+            }
+        }
+        Matcher m = matcher.get();
+        try {
+            m.reset(cs);
+            m.region(offset, cs.length());
+            return m.lookingAt() ? m.end() - m.start() : -1;
+        }
+        finally {
+            // pooled matcher should not retain parsed text
+            m.reset("");
+        }
+    }
+
+    /**
+     * Leading literal chars of expression, analysis is conservative
+     * and gives up on alternations, classes, groups and optional chars.
+     */
+    static String literalPrefix(String regEx) {
+        if (regEx.indexOf('|') >= 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while(i < regEx.length()) {
+            char ch = regEx.charAt(i);
+            int next;
+            if (ch == '\\') {
+                if (i + 1 < regEx.length() && !Character.isLetterOrDigit(regEx.charAt(i + 1))) {
+                    // escaped punctuation
+                    ch = regEx.charAt(i + 1);
+                    next = i + 2;
+                }
+                else {
+                    break;
+                }
+            }
+            else if (META.indexOf(ch) >= 0) {
+                break;
+            }
+            else {
+                next = i + 1;
+            }
+            char q = next < regEx.length() ? regEx.charAt(next) : 0;
+            if (q == '?' || q == '*' || q == '{') {
+                // char may be absent
+                break;
+            }
+            sb.append(ch);
+            if (q == '+') {
+                // char may be repeated
+                break;
+            }
+            i = next;
         }
-        return -1;
+        return sb.toString();
+    }
+
+    /**
+     * Probes each char class with single char input. If matcher has neither
+     * matched nor hit the end of input, no input starting with that char
+     * could match. Non ASCII class is always included.
+     */
+    static CharSet firstCharacter(Pattern pattern) {
+        Matcher m = pattern.matcher("");
+        StringBuilder chars = new StringBuilder();
+        chars.append('\u00A0');
+        for(char ch = 0; ch != 128; ++ch) {
+            if (canStartWith(m, ch)) {
+                chars.append(ch);
+            }
+        }
+        for(char ch: NON_ASCII_WHITESPACE) {
+            if (canStartWith(m, ch)) {
+                chars.append(ch);
+                break;
+            }
+        }
+        return new CharSet(chars.toString().toCharArray());
+    }
+
+    private static boolean canStartWith(Matcher m, char ch) {
+        m.reset(String.valueOf(ch));
+        return m.lookingAt() || m.hitEnd();
+    }
+
+    private static char[] nonAsciiWhitespace() {
+        StringBuilder sb = new StringBuilder();
+        for(int ch = 128; ch <= Character.MAX_VALUE; ++ch) {
+            if (Character.isWhitespace((char) ch)) {
+                sb.append((char) ch);
+            }
+        }
+        return sb.toString().toCharArray();
+    }
+
+    /**
+     * {@link Matcher} is stateful, so each thread is using its own instance.
+     */
+    static ThreadLocal<Matcher> matcherPool(final Pattern pattern) {
+        return new ThreadLocal<Matcher>() {
+            @Override
+            protected Matcher initialValue() {
+                return pattern.matcher("");
+            }
+        };
     }
 
     @Override
     public String toString() {
-        return matcher.pattern().pattern();
+        return pattern.pattern();
     }
 }
@@ -59,4 +59,101 @@ public interface SemanticActionHandler<C> {
         public R apply(C parserContext, Token token, A leftArg, B rightArg);
 
     }
+
+    /**
+     * Optional primitive flavor of {@link TermActionHandler} with {@link Integer} type.
+     * Compiled expressions chain primitive handlers without boxing.
+     */
+    public interface IntTermHandler<C> extends TermActionHandler<C, Integer> {
+
+        public int applyInt(C parserContext, Token token);
+    }
+
+    /**
+     * Primitive flavor of {@link UnaryActionHandler} with {@link Integer} type, see {@link IntTermHandler}.
+     */
+    public interface IntUnaryHandler<C> extends UnaryActionHandler<C, Integer, Integer> {
+
+        public int applyInt(C parserContext, Token token, int arg);
+    }
+
+    /**
+     * Primitive flavor of {@link BinaryActionHandler} with {@link Integer} type, see {@link IntTermHandler}.
+     */
+    public interface IntBinaryHandler<C> extends BinaryActionHandler<C, Integer, Integer, Integer> {
+
+        public int applyInt(C parserContext, Token token, int leftArg, int rightArg);
+    }
+
+    /**
+     * Primitive flavor of {@link TermActionHandler} with {@link Long} type, see {@link IntTermHandler}.
+     */
+    public interface LongTermHandler<C> extends TermActionHandler<C, Long> {
+
+        public long applyLong(C parserContext, Token token);
+    }
+
+    /**
+     * Primitive flavor of {@link UnaryActionHandler} with {@link Long} type, see {@link IntTermHandler}.
+     */
+    public interface LongUnaryHandler<C> extends UnaryActionHandler<C, Long, Long> {
+
+        public long applyLong(C parserContext, Token token, long arg);
+    }
+
+    /**
+     * Primitive flavor of {@link BinaryActionHandler} with {@link Long} type, see {@link IntTermHandler}.
+     */
+    public interface LongBinaryHandler<C> extends BinaryActionHandler<C, Long, Long, Long> {
+
+        public long applyLong(C parserContext, Token token, long leftArg, long rightArg);
+    }
+
+    /**
+     * Primitive flavor of {@link TermActionHandler} with {@link Double} type, see {@link IntTermHandler}.
+     */
+    public interface DoubleTermHandler<C> extends TermActionHandler<C, Double> {
+
+        public double applyDouble(C parserContext, Token token);
+    }
+
+    /**
+     * Primitive flavor of {@link UnaryActionHandler} with {@link Double} type, see {@link IntTermHandler}.
+     */
+    public interface DoubleUnaryHandler<C> extends UnaryActionHandler<C, Double, Double> {
+
+        public double applyDouble(C parserContext, Token token, double arg);
+    }
+
+    /**
+     * Primitive flavor of {@link BinaryActionHandler} with {@link Double} type, see {@link IntTermHandler}.
+     */
+    public interface DoubleBinaryHandler<C> extends BinaryActionHandler<C, Double, Double, Double> {
+
+        public double applyDouble(C parserContext, Token token, double leftArg, double rightArg);
+    }
+
+    /**
+     * Primitive flavor of {@link TermActionHandler} with {@link Boolean} type, see {@link IntTermHandler}.
+     */
+    public interface BooleanTermHandler<C> extends TermActionHandler<C, Boolean> {
+
+        public boolean applyBoolean(C parserContext, Token token);
+    }
+
+    /**
+     * Primitive flavor of {@link UnaryActionHandler} with {@link Boolean} type, see {@link IntTermHandler}.
+     */
+    public interface BooleanUnaryHandler<C> extends UnaryActionHandler<C, Boolean, Boolean> {
+
+        public boolean applyBoolean(C parserContext, Token token, boolean arg);
+    }
+
+    /**
+     * Primitive flavor of {@link BinaryActionHandler} with {@link Boolean} type, see {@link IntTermHandler}.
+     */
+    public interface BooleanBinaryHandler<C> extends BinaryActionHandler<C, Boolean, Boolean, Boolean> {
+
+        public boolean applyBoolean(C parserContext, Token token, boolean leftArg, boolean rightArg);
+    }
 }
@@ -2,12 +2,12 @@ package org.gridkit.nanoparser;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
 import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
@@ -36,20 +36,22 @@ class SemanticActionSolver {
     public TypeSet setOf(Class<?>... types) {
         TypeSet ts = new TypeSet(typeUniverse);
         for(Class<?> t: types) {
-            boolean known = false;
-            for(Class<?> nc: typeUniverse.universe) {
-                if (t.isAssignableFrom(nc)) {
-                    ts.add(nc);
-                    known = true;
-                }
-            }
-            if (!known) {
-                throw new IllegalArgumentException("Unknown class: " + t.getName());
-            }
+            addAssignable(ts, t);
         }
         return ts;
     }
 
+    /**
+     * Adds all known types assignable to given type.
+     */
+    public void addAssignable(TypeSet ts, Class<?> type) {
+        long[] mask = typeUniverse.space.assignableMask(type);
+        if (mask == null) {
+            throw new IllegalArgumentException("Unknown class: " + type.getName());
+        }
+        ts.addAll(mask);
+    }
+
     private Collection<Class<?>> enumTypes(SematicActionSource<?> source) {
         Set<Class<?>> set = new HashSet<Class<?>>();
         set.add(String.class);
@@ -75,6 +77,11 @@ class SemanticActionSolver {
     private Collection<Class<?>> enumTypes(SemanticActionHandler<?> source) {
         Set<Class<?>> set = new HashSet<Class<?>>();
         set.add(String.class);
+        if (source instanceof IndexedActionHandler) {
+            // avoid generation of all converted action variants
+            set.addAll(((IndexedActionHandler<?>) source).enumTypes());
+            return set;
+        }
         for(TermActionHandler<?, ?> ta: source.enumTerm(null, null)) {
             set.add(ta.returnType());
         }
@@ -90,97 +97,74 @@ class SemanticActionSolver {
         return set;
     }
 
+    /**
+     * Set of types from fixed universe. Membership is kept as bitset,
+     * each type of universe has precomputed mask of itself and its subtypes.
+     */
     static class TypeSet {
 
-        final Map<Class<?>, Integer> cindex;
+        final Universe space;
         final Class<?>[] universe;
-        final int[][] relations;
-        final boolean[] terminal;
-        final boolean[] content;
+        final long[] content;
 
         public TypeSet(Collection<Class<?>> classes) {
-            cindex = new HashMap<Class<?>, Integer>();
-            universe = classes.toArray(new Class<?>[classes.size()]);
-            terminal = new boolean[universe.length];
-            Arrays.fill(terminal, true);
-            relations = new int[universe.length][];
-            content = new boolean[universe.length];
-            for(int i = 0; i != universe.length; ++i) {
-                cindex.put(universe[i], i);
-            }
-            for(int i = 0; i != universe.length; ++i) {
-                for(int j = 0; j != universe.length; ++j) {
-                    if (i != j) {
-                        if (universe[i].isAssignableFrom(universe[j])) {
-                            addRel(i, j);
-                            terminal[i] = false;
-                        }
-                    }
-                }
-            }
-        }
-
-        private void addRel(int sup, int sub) {
-            int[] rel = relations[sup];
-            if (rel == null) {
-                relations[sup] = new int[]{sub};
-            }
-            else {
-                rel = Arrays.copyOf(rel, rel.length + 1);
-                rel[rel.length - 1] = sub;
-                relations[sup] = rel;
-            }
+            this.space = new Universe(classes);
+            this.universe = space.universe;
+            this.content = new long[space.words];
         }
 
         public TypeSet(TypeSet other) {
+            this.space = other.space;
             this.universe = other.universe;
-            this.cindex = other.cindex;
-            this.relations = other.relations;
-            this.terminal = other.terminal;
-            this.content = Arrays.copyOf(other.content, other.content.length);
+            this.content = other.content.clone();
         }
 
         public void clear() {
-            Arrays.fill(content, false);
+            Arrays.fill(content, 0);
         }
 
         public boolean isEmpty() {
-            for(boolean c: content) {
-                if (c) {
+            for(long w: content) {
+                if (w != 0) {
                     return false;
                 }
             }
             return true;
         }
 
+        /**
+         * @return <code>true</code> if set contains type or any of its subtypes
+         */
         public boolean contains(Class<?> type) {
-            Integer c = cindex.get(type);
-            if (c == null) {
-                throw new IllegalArgumentException("Unenumerated type: " + type.getName());
-            }
-            if (content[c]) {
-                return true;
-            }
-            if (relations[c] != null) {
-                for(int s: relations[c]) {
-                    if (content[s]) {
-                        return true;
-                    }
+            long[] mask = space.mask(type);
+            for(int i = 0; i != content.length; ++i) {
+                if ((content[i] & mask[i]) != 0) {
+                    return true;
                 }
             }
             return false;
         }
 
+        /**
+         * Adds type together with all its subtypes.
+         */
         public void add(Class<?> type) {
-            Integer c = cindex.get(type);
-            if (c == null) {
-                throw new IllegalArgumentException("Unenumerated type: " + type.getName());
+            addAll(space.mask(type));
+        }
+
+        public void addAll(TypeSet other) {
+            addAll(other.content);
+        }
+
+        void addAll(long[] mask) {
+            for(int i = 0; i != content.length; ++i) {
+                content[i] |= mask[i];
             }
-            content[c] = true;
-            if (relations[c] != null) {
-                for(int p: relations[c]) {
-                    content[p] = true;
-                }
+        }
+
+        public void retainAll(TypeSet other) {
+            for(int i = 0; i != content.length; ++i) {
+                content[i] &= other.content[i];
             }
         }
 
@@ -201,7 +185,7 @@ class SemanticActionSolver {
             @Override
             public boolean hasNext() {
                 while(p < universe.length) {
-                    if (content[p]) {
+                    if ((content[p >> 6] & (1l << p)) != 0) {
                         return true;
                     }
                     ++p;
@@ -225,14 +209,6 @@ class SemanticActionSolver {
             }
         }
 
-        public void addAll(TypeSet other) {
-            for(int i = 0; i != universe.length; ++i) {
-                if (other.content[i]) {
-                    content[i] = true;
-                }
-            }
-        }
-
         @Override
         public String toString() {
             if (isEmpty()) {
@@ -249,4 +225,93 @@ class SemanticActionSolver {
             return sb.toString();
         }
     }
+
+    /**
+     * Type universe shared by all its sets. Types are indexed by open addressing
+     * identity table, so lookup neither boxes nor allocates.
+     */
+    static class Universe {
+
+        final Class<?>[] universe;
+        final int words;
+        /** Bits of type and all its subtypes, per type index */
+        final long[][] masks;
+
+        private final Class<?>[] slots;
+        private final int[] slotIndex;
+        // masks of types outside of universe, racing threads would compute same value
+        private final Map<Class<?>, long[]> foreignMasks = new ConcurrentHashMap<Class<?>, long[]>();
+
+        public Universe(Collection<Class<?>> classes) {
+            universe = classes.toArray(new Class<?>[classes.size()]);
+            words = (universe.length + 63) >> 6;
+            masks = new long[universe.length][];
+            for(int i = 0; i != universe.length; ++i) {
+                masks[i] = new long[words];
+                for(int j = 0; j != universe.length; ++j) {
+                    if (universe[i].isAssignableFrom(universe[j])) {
+                        masks[i][j >> 6] |= 1l << j;
+                    }
+                }
+            }
+            int cap = Integer.highestOneBit(Math.max(universe.length, 1)) << 2;
+            slots = new Class<?>[cap];
+            slotIndex = new int[cap];
+            for(int i = 0; i != universe.length; ++i) {
+                int n = slot(universe[i]);
+                slots[n] = universe[i];
+                slotIndex[n] = i;
+            }
+        }
+
+        private int slot(Class<?> type) {
+            int n = System.identityHashCode(type) & (slots.length - 1);
+            while(slots[n] != null && slots[n] != type) {
+                n = (n + 1) & (slots.length - 1);
+            }
+            return n;
+        }
+
+        /**
+         * @return index of type or <code>-1</code>
+         */
+        public int indexOf(Class<?> type) {
+            int n = slot(type);
+            return slots[n] == null ? -1 : slotIndex[n];
+        }
+
+        long[] mask(Class<?> type) {
+            int n = indexOf(type);
+            if (n < 0) {
+                throw new IllegalArgumentException("Unenumerated type: " + type.getName());
+            }
+            return masks[n];
+        }
+
+        /**
+         * @return mask of universe types assignable to type or <code>null</code> if there are none
+         */
+        long[] assignableMask(Class<?> type) {
+            int n = indexOf(type);
+            if (n >= 0) {
+                return masks[n];
+            }
+            long[] mask = foreignMasks.get(type);
+            if (mask == null) {
+                mask = new long[words];
+                boolean known = false;
+                for(int i = 0; i != universe.length; ++i) {
+                    if (type.isAssignableFrom(universe[i])) {
+                        mask[i >> 6] |= 1l << i;
+                        known = true;
+                    }
+                }
+                if (!known) {
+                    return null;
+                }
+                foreignMasks.put(type, mask);
+            }
+            return mask;
+        }
+    }
 }
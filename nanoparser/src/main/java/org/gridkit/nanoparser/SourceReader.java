@@ -1,5 +1,14 @@
 package org.gridkit.nanoparser;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
 /**
  * Wrapper over {@link CharSequence} used to trace
  * current parsing coordinates.
@@ -8,54 +17,160 @@ package org.gridkit.nanoparser;
  */
 public class SourceReader {
 
+    private static final int DEFAULT_LOOKAHEAD = 8 << 10;
+    /** Chars of line kept around streaming token for excerpt */
+    private static final int EXCERPT_CONTEXT = 32;
+
     private CharSequence text;
     private int offset;
-    private int line;
-    private int pos;
+    private LineIndex lines;
+    /** Not <code>null</code> for streaming reader */
+    private StreamText stream;
 
     public SourceReader(CharSequence text) {
         this.text = text;
+        this.lines = new LineIndex(text);
+    }
+
+    /**
+     * Streaming reader, see {@link #SourceReader(Reader, int)}.
+     */
+    public SourceReader(Reader reader) {
+        this(reader, DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * Streaming reader. Text preceding current expression is discarded
+     * by {@link NanoParser#parseNext(Object, Class, SourceReader)}, tokens
+     * produced by streaming reader carry copies of their bodies.
+     * <br/>
+     * At least <code>lookahead</code> chars are available to token matchers,
+     * longer tokens are only matched if matcher consumes whole window.
+     */
+    public SourceReader(Reader reader, int lookahead) {
+        this.stream = new StreamText(reader, lookahead);
+        this.text = stream;
+        this.lines = new LineIndex(text);
+    }
+
+    /**
+     * Streaming reader over channel, see {@link #SourceReader(Reader, int)}.
+     */
+    public SourceReader(ReadableByteChannel channel, Charset charset) {
+        this(Channels.newReader(channel, charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE), -1), DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * Creates reader over memory mapped UTF-8 file. File content is
+     * not copied to heap, though parse results may retain references
+     * to mapped buffer.
+     */
+    public static SourceReader mapFile(File file) throws IOException {
+        return mapFile(file, MappedText.UTF8);
+    }
+
+    /**
+     * Creates reader over memory mapped file. ISO-8859-1, US-ASCII and UTF-8
+     * are decoded on access, other encodings are decoded eagerly.
+     */
+    public static SourceReader mapFile(File file, Charset charset) throws IOException {
+        return new SourceReader(MappedText.map(file, charset));
     }
 
     public int getOffset() {
         return offset;
     }
 
+    /**
+     * @return zero based line number of current offset
+     */
     public int getLine() {
-        return line;
+        return lines.line(offset);
     }
 
     public int getPos() {
-        return pos;
+        return lines.pos(offset);
     }
 
     public boolean endOfStream() {
+        if (stream != null) {
+            stream.fill(offset);
+        }
         return text.length() <= offset;
     }
 
+    CharSequence text() {
+        return text;
+    }
+
+    /**
+     * @return character at current offset, stream should not be at its end
+     */
+    public char currentChar() {
+        if (stream != null) {
+            stream.fill(offset);
+        }
+        return text.charAt(offset);
+    }
+
+    /**
+     * Streaming reader drops text before current offset.
+     */
+    void discardConsumed() {
+        if (stream != null) {
+            lines.discard(offset);
+            stream.discard(offset);
+        }
+    }
+
     public Token matchToken(TokenMatcher matcher) {
+        int n = match(matcher);
+        if (n > 0) {
+            PToken t = makeToken(n);
+            offset += n;
+            return t;
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Advances over run of input matching pattern, no token objects are created.
+     *
+     * @return <code>true</code> if anything was skipped
+     */
+    public boolean skip(TokenMatcher matcher) {
+        if (matcher == null) {
+            return false;
+        }
+        int soffs = offset;
+        int n;
+        while((n = match(matcher)) > 0) {
+            offset += n;
+        }
+        return offset != soffs;
+    }
+
+    /**
+     * @return length of match at current offset or non positive value
+     */
+    private int match(TokenMatcher matcher) {
+        if (stream != null) {
+            stream.fill(offset);
+        }
         if (offset < text.length()) {
             int n = matcher.match(text, offset);
-            if (n > 0) {
-                PToken t = makeToken(n);
-                offset += n;
-                for(int i = 0; i != t.body.length(); ++i) {
-                    if (t.body.charAt(0) == '\n') {
-                        ++line;
-                        pos = 0;
-                    }
-                    else {
-                        ++pos;
-                    }
-                }
-                return t;
-            }
-            else {
-                return null;
+            while (n > 0 && stream != null && offset + n >= text.length() && stream.fillMore()) {
+                // match has reached end of window, it may continue
+                n = matcher.match(text, offset);
             }
+            return n;
         }
         else {
-            return null;
+            return -1;
         }
     }
 
@@ -66,8 +181,6 @@ public class SourceReader {
         else {
 
             int soffs = offset;
-            int sline = line;
-            int spos = pos;
 
             Token[] r = new Token[multiToken.length];
             for(int i = 0; i != multiToken.length; ++i) {
@@ -75,20 +188,17 @@ public class SourceReader {
                 if (r[i] == null) {
                     // not matched
                     offset = soffs;
-                    line = sline;
-                    pos = spos;
                     return null;
                 }
-                // skip skippable
-                while(matchToken(skip) != null) {};
+                skip(skip);
             }
 
             MToken mtkn = new MToken(r);
             mtkn.text = text;
-            mtkn.body = text.subSequence(soffs, offset).toString();
             mtkn.offset = soffs;
-            mtkn.line = sline;
-            mtkn.pos = spos;
+            mtkn.length = offset - soffs;
+            mtkn.lines = lines;
+            detach(mtkn);
             return mtkn;
         }
     }
@@ -96,41 +206,103 @@ public class SourceReader {
     private PToken makeToken(int n) {
         PToken t = new PToken();
         t.text = text;
-        t.body = text.subSequence(offset, offset + n).toString();
         t.offset = offset;
-        t.line = line;
-        t.pos = pos;
+        t.length = n;
+        t.lines = lines;
+        detach(t);
         return t;
     }
 
     public Token emptyToken() {
         PToken t = new PToken();
         t.text = text;
-        t.body = "";
         t.offset = offset;
-        t.line = line;
-        t.pos = pos;
+        t.lines = lines;
+        detach(t);
         return t;
     }
 
+    /**
+     * Tokens of streaming reader should not depend on window content.
+     */
+    private void detach(PToken t) {
+        if (stream != null) {
+            t.tokenBody();
+            t.line = lines.line(t.offset);
+            t.pos = lines.pos(t.offset);
+            // keep a piece of the line, so excerpt survives discard of window
+            int from = Math.max(t.offset - Math.min(t.pos, EXCERPT_CONTEXT), stream.start());
+            int end = t.offset + t.length;
+            int to = end;
+            int limit = Math.min(stream.length(), end + EXCERPT_CONTEXT);
+            while(to < limit && stream.charAt(to) != '\n') {
+                ++to;
+            }
+            t.excerptLine = stream.subSequence(from, t.offset) + t.body + stream.subSequence(end, to);
+            t.excerptOffset = t.offset - from;
+        }
+    }
+
     @Override
     public String toString() {
         return text.subSequence(offset, text.length()).toString();
     }
 
-    private static class PToken implements Token {
+    static CharSequence bodySequence(Token token) {
+        return token instanceof PToken ? ((PToken) token).bodySequence() : token.tokenBody();
+    }
+
+    /**
+     * Token body is a view of source text, {@link String} is created
+     * only if {@link #tokenBody()} is called.
+     */
+    private static class PToken implements Token, CharSequence {
 
         CharSequence text;
         String body;
         int offset;
-        int line;
+        int length;
+        LineIndex lines;
+        /** Zero based line, if position is fixed */
+        int line = -1;
         int pos;
+        /** Copy of token's line around token, for detached tokens */
+        String excerptLine;
+        int excerptOffset;
 
         @Override
         public String tokenBody() {
+            if (body == null) {
+                body = text.subSequence(offset, offset + length).toString();
+            }
             return body;
         }
 
+        public CharSequence bodySequence() {
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+            }
+            return body != null ? body.charAt(index) : text.charAt(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Range: " + start + ".." + end + ", length: " + length);
+            }
+            return body != null ? body.subSequence(start, end) : text.subSequence(offset + start, offset + end);
+        }
+
         @Override
         public CharSequence source() {
             return text;
@@ -138,12 +310,12 @@ public class SourceReader {
 
         @Override
         public int line() {
-            return line + 1;
+            return (line >= 0 ? line : lines.line(offset)) + 1;
         }
 
         @Override
         public int pos() {
-            return pos;
+            return line >= 0 ? pos : lines.pos(offset);
         }
 
         @Override
@@ -158,12 +330,81 @@ public class SourceReader {
 
         @Override
         public String excerpt(int excerptLengthLimit) {
+            if (excerptLine != null && offset < ((StreamText) text).start()) {
+                return ParserException.formatExcerpt(excerptLine, 0, excerptOffset, excerptLengthLimit);
+            }
             return ParserException.formatTokenExcertp(this, excerptLengthLimit);
         }
 
         @Override
         public String toString() {
-            return body;
+            return tokenBody();
+        }
+    }
+
+    /**
+     * Line start offsets, text is scanned only when line
+     * information is requested (usually for error reporting).
+     */
+    private static class LineIndex {
+
+        private final CharSequence text;
+        private int[] lineStarts = {0};
+        private int lineCount = 1;
+        /** Number of line starts dropped from table */
+        private int firstLine;
+        private int scanned;
+
+        public LineIndex(CharSequence text) {
+            this.text = text;
+        }
+
+        /**
+         * @return zero based line number
+         */
+        public synchronized int line(int offset) {
+            scanTo(offset);
+            int lo = 0;
+            int hi = lineCount - 1;
+            while(lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (lineStarts[mid] <= offset) {
+                    lo = mid;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            return firstLine + lo;
+        }
+
+        public synchronized int pos(int offset) {
+            return offset - lineStarts[line(offset) - firstLine];
+        }
+
+        /**
+         * Drops line starts before line of given offset,
+         * line numbers of earlier offsets are no longer available.
+         */
+        public synchronized void discard(int offset) {
+            int n = line(offset) - firstLine;
+            if (n > 0) {
+                System.arraycopy(lineStarts, n, lineStarts, 0, lineCount - n);
+                lineCount -= n;
+                firstLine += n;
+            }
+        }
+
+        private void scanTo(int offset) {
+            int limit = Math.min(offset, text.length());
+            for(; scanned < limit; ++scanned) {
+                if (text.charAt(scanned) == '\n') {
+                    if (lineCount == lineStarts.length) {
+                        lineStarts = Arrays.copyOf(lineStarts, 2 * lineCount);
+                    }
+                    lineStarts[lineCount++] = scanned + 1;
+                }
+            }
         }
     }
 
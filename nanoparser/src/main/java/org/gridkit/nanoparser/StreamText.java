@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Sliding window over {@link Reader}, indexed by absolute offset in stream.
+ * <br/>
+ * {@link #length()} is a number of chars read so far, chars before
+ * {@link #start()} are discarded and cannot be accessed.
+ */
+class StreamText implements CharSequence {
+
+    private final Reader reader;
+    private final int lookahead;
+    private char[] buffer;
+    /** Stream offset of buffer[0] */
+    private int base;
+    private int count;
+    private boolean eof;
+
+    public StreamText(Reader reader, int lookahead) {
+        if (lookahead <= 0) {
+            throw new IllegalArgumentException("Lookahead should be positive (" + lookahead + ")");
+        }
+        this.reader = reader;
+        this.lookahead = lookahead;
+        this.buffer = new char[2 * lookahead];
+    }
+
+    /**
+     * @return offset of first available char
+     */
+    public int start() {
+        return base;
+    }
+
+    /**
+     * Reads stream until at least lookahead chars after offset are available.
+     */
+    public void fill(int offset) {
+        while(!eof && base + count < offset + lookahead) {
+            readMore();
+        }
+    }
+
+    /**
+     * Reads another chunk of stream.
+     * @return <code>false</code> if stream is exhausted
+     */
+    public boolean fillMore() {
+        if (eof) {
+            return false;
+        }
+        int len = base + count;
+        while(!eof && base + count == len) {
+            readMore();
+        }
+        return base + count > len;
+    }
+
+    /**
+     * Drops chars before offset.
+     */
+    public void discard(int offset) {
+        int n = Math.min(offset, base + count) - base;
+        if (n > 0) {
+            System.arraycopy(buffer, n, buffer, 0, count - n);
+            base += n;
+            count -= n;
+        }
+    }
+
+    private void readMore() {
+        if (count == buffer.length) {
+            char[] nb = new char[2 * buffer.length];
+            System.arraycopy(buffer, 0, nb, 0, count);
+            buffer = nb;
+        }
+        try {
+            int n = reader.read(buffer, count, buffer.length - count);
+            if (n < 0) {
+                eof = true;
+            }
+            else {
+                count += n;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int length() {
+        return base + count;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < base) {
+            throw new IndexOutOfBoundsException("Offset " + index + " is already discarded, stream window starts at " + base);
+        }
+        if (index >= base + count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", length: " + (base + count));
+        }
+        return buffer[index - base];
+    }
+
+    /**
+     * @return copy of window content, so result remains valid after discard
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < base || end > base + count || start > end) {
+            throw new IndexOutOfBoundsException("Range: " + start + ".." + end + ", available: " + base + ".." + (base + count));
+        }
+        return new String(buffer, start - base, end - start);
+    }
+
+    /**
+     * @return content of current window
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count);
+    }
+}
@@ -14,6 +14,10 @@ class StringMatcher implements TokenMatcher {
         }
     }
 
+    String text() {
+        return new String(text);
+    }
+
     @Override
     public CharSet firstCharacter() {
         return new CharSet(text[0]);
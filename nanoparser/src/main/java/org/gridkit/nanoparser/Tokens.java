@@ -26,4 +26,12 @@ public class Tokens {
         return new CommentMatcher(start, end);
     }
 
+    /**
+     * Body of token produced by {@link SourceReader} is returned as a view of source text,
+     * without copying characters. For other tokens {@link Token#tokenBody()} is returned.
+     */
+    public static CharSequence bodySequence(Token token) {
+        return SourceReader.bodySequence(token);
+    }
+
 }
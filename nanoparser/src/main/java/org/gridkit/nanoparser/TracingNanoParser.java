@@ -51,33 +51,19 @@ public class TracingNanoParser<C> extends NanoParser<C> {
     }
 
     @Override
-    protected Error mapTermAction(Class<?> type, ParseNode node, int bestParsed) {
-        trace("mapTermAction: " + type.getSimpleName() + " | " + flat(node.toString()));
+    protected void inferenceStarted(Class<?> type, ParseNode node) {
+        trace("infer " + kind(node) + ": " + type.getSimpleName() + " | " + flat(node.toString()));
         ++deepth;
-        Error error = super.mapTermAction(type, node, bestParsed);
-        --deepth;
-        trace(error == null ? "-> OK" : "-> ERROR: " + error);
-        return error;
     }
 
     @Override
-    protected Error mapUnaryAction(Class<?> type, ParseNode node, int bestParsed) {
-        trace("mapUnaryAction: " + type.getSimpleName() + " | " + flat(node.toString()));
-        ++deepth;
-        Error error = super.mapUnaryAction(type, node, bestParsed);
+    protected void inferenceCompleted(Class<?> type, ParseNode node, Error error) {
         --deepth;
         trace(error == null ? "-> OK" : "-> ERROR: " + error);
-        return error;
     }
 
-    @Override
-    protected Error mapBinaryAction(Class<?> type, ParseNode node, int bestParsed) {
-        trace("mapBinaryAction: " + type.getSimpleName() + " | " + flat(node.toString()));
-        ++deepth;
-        Error error = super.mapBinaryAction(type, node, bestParsed);
-        --deepth;
-        trace(error == null ? "-> OK" : "-> ERROR: " + error);
-        return error;
+    private String kind(ParseNode node) {
+        return node.leftNode == null ? "term" : node.rightNode == null ? "unary" : "binary";
     }
 
     private String flat(String text) {
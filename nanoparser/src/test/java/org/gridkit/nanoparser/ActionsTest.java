@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import org.gridkit.nanoparser.Actions.BinaryFunction;
+import org.gridkit.nanoparser.Actions.IntBinaryFunction;
+import org.gridkit.nanoparser.Actions.IntTermFunction;
+import org.gridkit.nanoparser.Actions.IntUnaryFunction;
+import org.gridkit.nanoparser.Actions.TermFunction;
+import org.gridkit.nanoparser.Actions.UnaryFunction;
+import org.gridkit.nanoparser.NanoGrammar.SyntaticScope;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ActionsTest {
+
+    private static final SyntaticScope ARITHM = NanoGrammar.newParseTable()
+            .term("NUM", "~\\d+")
+            .skip("~\\s")
+            .infixOp("+", "+")
+            .infixOp("*", "*").rank(2)
+            .prefixOp("-", "-")
+            .enclosure("(", ")")
+            .toScope();
+
+    private static final TermFunction<Void, String> TEXT = new TermFunction<Void, String>() {
+        @Override
+        public String apply(Void parserContext, Token token) {
+            return token.tokenBody();
+        }
+    };
+
+    private static final UnaryFunction<Void, Integer, String> TO_INT = new UnaryFunction<Void, Integer, String>() {
+        @Override
+        public Integer apply(Void parserContext, Token token, String arg) {
+            return Integer.valueOf(arg);
+        }
+    };
+
+    @Test
+    public void test_arithmetic() {
+        SematicActionSource<Void> source = Actions.<Void>builder()
+                .term("NUM", int.class, new TermFunction<Void, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token) {
+                        return Integer.valueOf(token.tokenBody());
+                    }
+                })
+                .unary("-", int.class, int.class, new UnaryFunction<Void, Integer, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token, Integer arg) {
+                        return -arg;
+                    }
+                })
+                .binary("+", int.class, int.class, int.class, new BinaryFunction<Void, Integer, Integer, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token, Integer a, Integer b) {
+                        return a + b;
+                    }
+                })
+                .binary("*", int.class, int.class, int.class, new BinaryFunction<Void, Integer, Integer, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token, Integer a, Integer b) {
+                        return a * b;
+                    }
+                })
+                .toSource();
+
+        NanoParser<Void> parser = new NanoParser<Void>(ARITHM, source);
+
+        Assert.assertEquals(Integer.valueOf(7), parser.parse(null, Integer.class, "1 + 2 * 3"));
+        Assert.assertEquals(Integer.valueOf(-9), parser.parse(null, Integer.class, "-(1 + 2) * 3"));
+        Assert.assertEquals(Integer.valueOf(11), parser.compile(Integer.class, "2 * 3 + 5").eval(null));
+    }
+
+    @Test
+    public void test_primitive_arithmetic() {
+        SematicActionSource<Void> source = Actions.<Void>builder()
+                .intTerm("NUM", new IntTermFunction<Void>() {
+                    @Override
+                    public int apply(Void parserContext, Token token) {
+                        return Integer.parseInt(token.tokenBody());
+                    }
+                })
+                .intUnary("-", new IntUnaryFunction<Void>() {
+                    @Override
+                    public int apply(Void parserContext, Token token, int arg) {
+                        return -arg;
+                    }
+                })
+                .intBinary("+", new IntBinaryFunction<Void>() {
+                    @Override
+                    public int apply(Void parserContext, Token token, int a, int b) {
+                        return a + b;
+                    }
+                })
+                .intBinary("*", new IntBinaryFunction<Void>() {
+                    @Override
+                    public int apply(Void parserContext, Token token, int a, int b) {
+                        return a * b;
+                    }
+                })
+                .toSource();
+
+        NanoParser<Void> parser = new NanoParser<Void>(ARITHM, source);
+
+        Assert.assertEquals(Integer.valueOf(7), parser.parse(null, Integer.class, "1 + 2 * 3"));
+        CompiledExpression<Void, Integer> expr = parser.compile(Integer.class, "-(1 + 2) * 3");
+        Assert.assertEquals(Integer.valueOf(-9), expr.eval(null));
+        assertIntOps(((NanoParser<?>.BoundExpression<?>) expr).root());
+    }
+
+    private static void assertIntOps(Evaluator<?> node) {
+        Assert.assertTrue("Primitive evaluator expected: " + node.getClass().getSimpleName(), node instanceof Evaluator.IntOp);
+        if (node.left() != null) {
+            assertIntOps(node.left());
+        }
+        if (node.right() != null) {
+            assertIntOps(node.right());
+        }
+    }
+
+    @Test
+    public void test_convertible() {
+        SematicActionSource<Void> source = Actions.<Void>builder()
+                .term("NUM", String.class, TEXT)
+                .converter(Integer.class, String.class, TO_INT)
+                .binary("+", Integer.class, Integer.class, Integer.class, new BinaryFunction<Void, Integer, Integer, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token, Integer a, Integer b) {
+                        return a + b;
+                    }
+                }).convertible()
+                .toSource();
+
+        NanoParser<Void> parser = new NanoParser<Void>(ARITHM, source);
+
+        Assert.assertEquals(Integer.valueOf(6), parser.parse(null, Integer.class, "1 + 2 + 3"));
+        Assert.assertEquals(Integer.valueOf(3), parser.compile(Integer.class, "1 + 2").eval(null));
+    }
+
+    @Test
+    public void test_non_convertible() {
+        SematicActionSource<Void> source = Actions.<Void>builder()
+                .term("NUM", String.class, TEXT)
+                .converter(Integer.class, String.class, TO_INT)
+                .binary("+", Integer.class, Integer.class, Integer.class, new BinaryFunction<Void, Integer, Integer, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token, Integer a, Integer b) {
+                        return a + b;
+                    }
+                })
+                .toSource();
+
+        NanoParser<Void> parser = new NanoParser<Void>(ARITHM, source);
+
+        try {
+            parser.parse(null, Integer.class, "1 + 2");
+            Assert.fail("Exception expected");
+        }
+        catch(ParserException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_convertible_single_side() {
+        SematicActionSource<Void> source = Actions.<Void>builder()
+                .term("NUM", String.class, TEXT)
+                .converter(Integer.class, String.class, TO_INT)
+                .binary("*", String.class, String.class, Integer.class, new BinaryFunction<Void, String, String, Integer>() {
+                    @Override
+                    public String apply(Void parserContext, Token token, String a, Integer b) {
+                        StringBuilder sb = new StringBuilder();
+                        for(int i = 0; i != b; ++i) {
+                            sb.append(a);
+                        }
+                        return sb.toString();
+                    }
+                }).convertibleRight()
+                .binary("+", Integer.class, Integer.class, Integer.class, new BinaryFunction<Void, Integer, Integer, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token, Integer a, Integer b) {
+                        return a + b;
+                    }
+                }).convertibleRight()
+                .toSource();
+
+        NanoParser<Void> parser = new NanoParser<Void>(ARITHM, source);
+
+        Assert.assertEquals("333", parser.parse(null, String.class, "3 * 3"));
+        try {
+            // left argument is not convertible
+            parser.parse(null, Integer.class, "1 + 2");
+            Assert.fail("Exception expected");
+        }
+        catch(ParserException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_convertible_left_of_unary() {
+        Actions.<Void>builder()
+                .unary("-", Integer.class, Integer.class, new UnaryFunction<Void, Integer, Integer>() {
+                    @Override
+                    public Integer apply(Void parserContext, Token token, Integer arg) {
+                        return -arg;
+                    }
+                })
+                .convertibleLeft();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_ambiguous_term() {
+        Actions.<Void>builder()
+                .term("NUM", String.class, TEXT)
+                .term("NUM", String.class, TEXT);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_convertible_without_action() {
+        Actions.<Void>builder()
+                .term("NUM", String.class, TEXT)
+                .convertible();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_unsupported_primitive() {
+        Actions.<Void>builder()
+                .converter(float.class, String.class, new UnaryFunction<Void, Float, String>() {
+                    @Override
+                    public Float apply(Void parserContext, Token token, String arg) {
+                        return Float.valueOf(arg);
+                    }
+                });
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gridkit.nanoparser.NanoParser.CacheEviction;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Single parser instance is shared by number of threads.
+ */
+public class ConcurrentParserTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 2000;
+
+    private static final String[] EXPRESSIONS = {
+        "1+2", "1+2*3", "(1 + 2)*3", "1 - 3", "1 + -(3 + 2)", "-3 * -2", "--1",
+        "((((1 + 2) * 3) - 4) * (5 + 6))", "10 * 10 * 10 - 999",
+    };
+
+    private static final int[] RESULTS = {
+        3, 7, 9, -2, -4, 6, 1,
+        55, 1,
+    };
+
+    @Test
+    public void shared_parser() throws Exception {
+        // fresh parser, so lazy lookup caches are populated concurrently
+        verify(new NanoParser<Void>(NanoParserArithmTest.SIMPLE_GRAMMAR, new NanoParserArithmTest(null, 0)));
+    }
+
+    @Test
+    public void shared_parser_with_compiled_lexer() throws Exception {
+        NanoParser<Void> parser = new NanoParser<Void>(NanoParserArithmTest.SIMPLE_GRAMMAR, new NanoParserArithmTest(null, 0));
+        parser.setCompiledLexer(true);
+        verify(parser);
+    }
+
+    @Test
+    public void shared_parser_with_plan_cache() throws Exception {
+        NanoParser<Void> parser = new NanoParser<Void>(NanoParserArithmTest.SIMPLE_GRAMMAR, new NanoParserArithmTest(null, 0));
+        parser.enablePlanCache(16, CacheEviction.LRU);
+        verify(parser);
+        Assert.assertEquals(THREADS * ITERATIONS, parser.getPlanCacheHits() + parser.getPlanCacheMisses());
+        Assert.assertTrue(parser.getPlanCacheHits() > parser.getPlanCacheMisses());
+    }
+
+    @Test
+    public void shared_parser_with_evicting_plan_cache() throws Exception {
+        // cache is smaller than expression set, so entries are evicted concurrently with lookups
+        for(CacheEviction eviction: CacheEviction.values()) {
+            NanoParser<Void> parser = new NanoParser<Void>(NanoParserArithmTest.SIMPLE_GRAMMAR, new NanoParserArithmTest(null, 0));
+            parser.enablePlanCache(4, eviction);
+            verify(parser);
+            Assert.assertEquals(THREADS * ITERATIONS, parser.getPlanCacheHits() + parser.getPlanCacheMisses());
+        }
+    }
+
+    private void verify(final NanoParser<Void> parser) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for(int t = 0; t != THREADS; ++t) {
+                final int shift = t;
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for(int i = 0; i != ITERATIONS; ++i) {
+                            int n = (i + shift) % EXPRESSIONS.length;
+                            Integer result = parser.parse(null, Integer.class, EXPRESSIONS[n]);
+                            Assert.assertEquals(EXPRESSIONS[n], Integer.valueOf(RESULTS[n]), result);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for(Future<Void> f: futures) {
+                f.get();
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
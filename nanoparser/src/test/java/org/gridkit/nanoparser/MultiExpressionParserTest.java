@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 package org.gridkit.nanoparser;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -125,4 +126,19 @@ public class MultiExpressionParserTest extends ReflectionActionSource<Void> {
             Assert.fail("Some more input remains");
         }
     }
+
+    @Test
+    public void verify_streaming() {
+        NanoParser<Void> parser = new NanoParser<Void>(SIMPLE_GRAMMAR, this);
+        // tiny lookahead to exercise window extension
+        SourceReader source = new SourceReader(new StringReader(expressions.toString()), 1);
+
+        for(Integer result: expectedResults) {
+            Assert.assertEquals(result, parser.parseNext(null, Integer.class, source));
+        }
+
+        if (!source.endOfStream()) {
+            Assert.fail("Some more input remains");
+        }
+    }
 }
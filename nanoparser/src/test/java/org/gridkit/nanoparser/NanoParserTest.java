@@ -16,9 +16,15 @@
 package org.gridkit.nanoparser;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.assertj.core.api.Assertions;
 import org.gridkit.nanoparser.NanoGrammar.SyntaticScope;
+import org.gridkit.nanoparser.SemanticActionHandler.BinaryActionHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntBinaryHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.IntTermHandler;
+import org.gridkit.nanoparser.SemanticActionHandler.TermActionHandler;
 import org.junit.Test;
 
 import org.junit.Assert;
@@ -130,9 +136,343 @@ public class NanoParserTest {
         assertParseResult(parser, "bcd(xyz('1', sdf(X)))", "bcd[xyz[1, sdf[X]]]");
     }
 
+    @Test
+    public void test_compiled_lexer() {
+
+        SyntaticScope quoted = NanoGrammar.newParseTable()
+                .term("~[^\\\\']+")
+                .term("ESCAPE", "~\\\\.?")
+                .glueOp("CONCAT")
+                .toScope();
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("~[A-Z]")
+                .skip("~\\s")
+                .skip("/*", "*/")
+                .infixOp("+", "+")
+                .infixOp("*", "*").rank(2)
+                .enclosure("()", "(", ")")
+                .enclosure("\'", "\'").scope(quoted)
+                .toLazyScope();
+
+        SyntaticScope functionArgs = NanoGrammar.newParseTable()
+                .include(scope)
+                .infixOp("COMMA", ",").rank(0) // reduced rank
+                .toScope();
+
+        NanoGrammar.extendTable(scope)
+                .enclosure("CALL", "~[A-Za-z]+\\(", ")").scope(functionArgs);
+
+        NanoParser<Void> parser = new NanoParser<Void>(scope, new SimpleParser());
+        parser.setCompiledLexer(true);
+
+        assertParseResult(parser, "x(A)+B", "[x[A]+B]");
+        assertParseResult(parser, "A /* comment */ + B", "[A+B]");
+        assertParseResult(parser, "bcd('1 2 3',D + E, F*G) + X", "[bcd[1 2 3, [D+E], [F*G]]+X]");
+        assertParseResult(parser, "bcd('1 \\2 \\'3',D + E, F*G) + X", "[bcd[1 2 '3, [D+E], [F*G]]+X]");
+        assertParseResult(parser, "bcd(xyz('1', sdf(X)))", "bcd[xyz[1, sdf[X]]]");
+    }
+
+    @Test
+    public void test_dispatch_priority() {
+        // all patterns start with 'n', first declared matching pattern should win
+        SyntaticScope keywordFirst = NanoGrammar.newParseTable()
+                .skip("~\\s")
+                .term("NULL", "null")
+                .term("NUM", "~n\\d+")
+                .term("WORD", "~[a-z]+")
+                .infixOp("+", "+")
+                .toScope();
+
+        SyntaticScope wordFirst = NanoGrammar.newParseTable()
+                .skip("~\\s")
+                .term("WORD", "~[a-z]+")
+                .term("NUM", "~n\\d+")
+                .term("NULL", "null")
+                .infixOp("+", "+")
+                .toScope();
+
+        for(boolean compiled: new boolean[]{false, true}) {
+            for(boolean longest: new boolean[]{false, true}) {
+                NanoParser<Void> parser = new NanoParser<Void>(keywordFirst, taggingSource("NULL", "NUM", "WORD"));
+                parser.setCompiledLexer(compiled);
+                parser.setLongestLiteralMatch(longest);
+                Assert.assertEquals("NULL:null WORD:nil NUM:n12", parser.parse(null, String.class, "null + nil + n12"));
+
+                parser = new NanoParser<Void>(wordFirst, taggingSource("NULL", "NUM", "WORD"));
+                parser.setCompiledLexer(compiled);
+                parser.setLongestLiteralMatch(longest);
+                Assert.assertEquals("WORD:null WORD:nil WORD:n", parser.parse(null, String.class, "null + nil + n"));
+            }
+        }
+    }
+
+    @Test
+    public void test_dispatch_non_ascii() {
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .skip("~\\s")
+                .term("CTRL", "~[\\x01-\\x08]+")
+                .term("WORD", "~\\p{L}+")
+                .term("OTHER", "~[^\\s+]+")
+                .infixOp("+", "+")
+                .toScope();
+
+        for(boolean compiled: new boolean[]{false, true}) {
+            NanoParser<Void> parser = new NanoParser<Void>(scope, taggingSource("CTRL", "WORD", "OTHER"));
+            parser.setCompiledLexer(compiled);
+            Assert.assertEquals("WORD:\u00e9clair CTRL:\u0001\u0002 WORD:\u65e5\u672c OTHER:\u2192x WORD:abc",
+                    parser.parse(null, String.class, "\u00e9clair + \u0001\u0002 + \u65e5\u672c + \u2192x + abc"));
+        }
+    }
+
+    /**
+     * Terms are tagged with their ids, "+" joins tagged terms.
+     */
+    private static SematicActionSource<Void> taggingSource(String... termIds) {
+        Actions.Builder<Void> builder = Actions.<Void>builder();
+        for(final String id: termIds) {
+            builder.term(id, String.class, new Actions.TermFunction<Void, String>() {
+                @Override
+                public String apply(Void parserContext, Token token) {
+                    return id + ":" + token.tokenBody();
+                }
+            });
+        }
+        builder.binary("+", String.class, String.class, String.class, new Actions.BinaryFunction<Void, String, String, String>() {
+            @Override
+            public String apply(Void parserContext, Token token, String left, String right) {
+                return left + " " + right;
+            }
+        });
+        return builder.toSource();
+    }
+
+    @Test
+    public void test_term_body_view() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .skip("~\\s")
+                .infixOp("+", "+")
+                .toScope();
+
+        NanoParser<Void> parser = new NanoParser<Void>(scope, new CharSequenceParser());
+
+        Assert.assertEquals(Integer.valueOf(6), parser.parse(null, Integer.class, "1 + 2 + 3"));
+        Assert.assertEquals(Integer.valueOf(120), parser.parse(null, Integer.class, new SourceReader(new StringBuilder("100+20"))));
+    }
+
+    @Test
+    public void test_longest_literal_match() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .skip("~\\s")
+                .infixOp("+", "+")
+                .infixOp("*", "*").rank(2)
+                .infixOp("**", "**").rank(3)
+                .toScope();
+
+        NanoParser<Void> parser = new NanoParser<Void>(scope, new CharSequenceParser());
+        Assert.assertEquals(Integer.valueOf(7), parser.parse(null, Integer.class, "1 + 2 * 3"));
+        try {
+            // first declared literal wins
+            parser.parse(null, Integer.class, "2 ** 3");
+            Assert.fail("Exception expected");
+        }
+        catch(ParserException e) {
+            // expected
+        }
+
+        parser.setLongestLiteralMatch(true);
+        Assert.assertEquals(Integer.valueOf(7), parser.parse(null, Integer.class, "1 + 2 * 3"));
+        Assert.assertEquals(Integer.valueOf(17), parser.parse(null, Integer.class, "1 + 2 ** 3 * 2"));
+
+        parser.setCompiledLexer(true);
+        Assert.assertEquals(Integer.valueOf(17), parser.parse(null, Integer.class, "1 + 2 ** 3 * 2"));
+    }
+
+    @Test
+    public void test_inference_is_memoized() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .term("WORD", "~[a-z]+")
+                .skip("~\\s")
+                .infixOp(",", ",")
+                .toScope();
+
+        final int[] counter = {0};
+        NanoParser<Void> parser = new NanoParser<Void>(scope, new ListParser()) {
+            @Override
+            protected void inferenceStarted(Class<?> type, ParseNode node) {
+                if (node.rightNode != null) {
+                    ++counter[0];
+                }
+            }
+        };
+
+        // alternating types, so every other node has to try both overloads
+        StringBuilder sb = new StringBuilder("0");
+        for(int i = 1; i != 30; ++i) {
+            sb.append(", ").append(i % 2 == 0 ? String.valueOf(i) : "x");
+        }
+        Object[] result = parser.parse(null, Object[].class, sb.toString());
+        Assert.assertEquals(30, result.length);
+        Assert.assertEquals(Long.valueOf(28), result[28]);
+        Assert.assertEquals("x", result[29]);
+        Assert.assertTrue("Too many inference calls: " + counter[0], counter[0] < 200);
+    }
+
+    @Test
+    public void test_primitive_handlers() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .skip("~\\s")
+                .infixOp("+", "+")
+                .infixOp("*", "*").rank(2)
+                .toScope();
+
+        IntArithm arithm = new IntArithm();
+        NanoParser<Void> parser = new NanoParser<Void>(scope, arithm);
+
+        CompiledExpression<Void, Integer> expr = parser.compile(Integer.class, "1 + 2 * 3 + 4");
+        Assert.assertEquals(Integer.valueOf(11), expr.eval(null));
+        Assert.assertEquals(0, arithm.boxedCalls);
+
+        // boxed handlers are still used by interpreter
+        Assert.assertEquals(Integer.valueOf(11), parser.parse(null, Integer.class, "1 + 2 * 3 + 4"));
+        Assert.assertTrue(arithm.boxedCalls > 0);
+
+        // first declared handler wins, primitive flavor does not change resolution
+        BoxedFirstIntArithm boxedFirst = new BoxedFirstIntArithm();
+        parser = new NanoParser<Void>(scope, boxedFirst);
+        Assert.assertEquals(Integer.valueOf(11), parser.compile(Integer.class, "1 + 2 * 3 + 4").eval(null));
+        Assert.assertEquals(2, boxedFirst.boxedCalls);
+    }
+
+    @Test
+    public void test_primitive_signatures() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .skip("~\\s")
+                .infixOp("<", "<")
+                .infixOp("+", "+").rank(2)
+                .prefixOp("!", "!").rank(3)
+                .enclosure("(", ")")
+                .toScope();
+
+        NanoParser<Void> parser = new NanoParser<Void>(scope, new PrimitiveParser());
+
+        Assert.assertEquals(Long.valueOf(3), parser.parse(null, Long.class, "1 + 2"));
+        Assert.assertEquals(Boolean.TRUE, parser.parse(null, Boolean.class, "1 + 2 < 4"));
+        Assert.assertEquals(Boolean.FALSE, parser.compile(Boolean.class, "!(1 < 4)").eval(null));
+    }
+
+    @Test
+    public void test_deep_nesting() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .skip("~\\s")
+                .infixOp("+", "+")
+                .enclosure("(", ")")
+                .toScope();
+
+        NanoParser<Void> parser = new NanoParser<Void>(scope, new CharSequenceParser());
+
+        int depth = 20000;
+        StringBuilder nested = new StringBuilder();
+        StringBuilder chain = new StringBuilder("1");
+        for(int i = 0; i != depth; ++i) {
+            nested.append("(1+");
+            chain.append("+1");
+        }
+        nested.append("0");
+        for(int i = 0; i != depth; ++i) {
+            nested.append(")");
+        }
+
+        Integer expected = Integer.valueOf(depth);
+        Assert.assertEquals(expected, parser.parse(null, Integer.class, nested.toString()));
+        Assert.assertEquals(expected, parser.compile(Integer.class, nested.toString()).eval(null));
+        Assert.assertEquals(Integer.valueOf(depth + 1), parser.parse(null, Integer.class, chain.toString()));
+        Assert.assertEquals(Integer.valueOf(depth + 1), parser.compile(Integer.class, chain.toString()).eval(null));
+    }
+
+    @Test
+    public void test_session_reuse() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .term("QUOTE", "~'[^']*'")
+                .skip("~\\s")
+                .infixOp("+", "+")
+                .infixOp("*", "*").rank(2)
+                .toScope();
+
+        QuoteParser actions = new QuoteParser();
+        NanoParser<Void> parser = new NanoParser<Void>(scope, actions);
+        actions.parser = parser;
+
+        for(int i = 0; i != 3; ++i) {
+            // nested parse is called from semantic action
+            Assert.assertEquals(Integer.valueOf(11), parser.parse(null, Integer.class, "1 + '2 + 3' * 2"));
+            Assert.assertEquals(Integer.valueOf(7), parser.compile(Integer.class, "1 + 2 * 3").eval(null));
+            try {
+                parser.parse(null, String.class, "1 + 2");
+                Assert.fail("Exception expected");
+            }
+            catch(ParserException e) {
+                Assert.assertEquals("Required type 'String' but found 'Integer'", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_indexed_dispatch() {
+        MultiSourceSemanticHandler<Void> handler = new MultiSourceSemanticHandler<Void>(new CharSequenceParser());
+
+        int plus = handler.opIndex("+");
+        int num = handler.opIndex("NUM");
+        Assert.assertTrue(plus >= 0);
+        Assert.assertEquals(IndexedActionHandler.UNKNOWN, handler.opIndex("-"));
+        Assert.assertEquals(IndexedActionHandler.ANY_TYPE, handler.typeIndex(null));
+        Assert.assertEquals(IndexedActionHandler.UNKNOWN, handler.typeIndex(Long.class));
+
+        int integer = handler.typeIndex(Integer.class);
+        Assert.assertEquals(1, handler.indexedBinaries(plus, integer).length);
+        Assert.assertSame(handler.indexedBinaries(plus, integer), handler.enumBinaries("+", Integer.class, null, null));
+        Assert.assertSame(handler.indexedTerms(num, IndexedActionHandler.ANY_TYPE), handler.enumTerm("NUM", null));
+        Assert.assertEquals(0, handler.indexedBinaries(plus, handler.typeIndex(String.class)).length);
+        Assert.assertEquals(0, handler.indexedUnaries(IndexedActionHandler.UNKNOWN, integer).length);
+        // types outside of universe are still resolved
+        Assert.assertEquals(1, handler.enumBinaries("+", Number.class, null, null).length);
+    }
+
+    @Test
+    public void test_conversion_chain() {
+
+        SyntaticScope scope = NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .skip("~\\s")
+                .infixOp("+", "+")
+                .toScope();
+
+        NanoParser<Void> parser = new NanoParser<Void>(scope, new ChainParser());
+
+        // String -> Long -> Double
+        Assert.assertEquals(Double.valueOf(3), parser.parse(null, Double.class, "1 + 2"));
+        Assert.assertEquals(Double.valueOf(6), parser.compile(Double.class, "1 + 2 + 3").eval(null));
+    }
+
     private void assertParseResult(NanoParser<Void> parser, String source, String results) {
         try {
             Assertions.assertThat(parser.parse(null, String.class, source)).isEqualTo(results);
+            Assertions.assertThat(parser.compile(String.class, source).eval(null)).isEqualTo(results);
         }
         catch(ParserException e) {
             System.out.println(e.formatVerboseErrorMessage());
@@ -140,6 +480,266 @@ public class NanoParserTest {
         }
     }
 
+    public static class CharSequenceParser extends ReflectionActionSource<Void> {
+
+        @Term("NUM")
+        public Integer num(CharSequence body) {
+            int n = 0;
+            for(int i = 0; i != body.length(); ++i) {
+                n = 10 * n + (body.charAt(i) - '0');
+            }
+            return n;
+        }
+
+        @Binary("+")
+        public Integer plus(Integer a, Integer b) {
+            return a + b;
+        }
+
+        @Binary("*")
+        public Integer mult(Integer a, Integer b) {
+            return a * b;
+        }
+
+        @Binary("**")
+        public Integer pow(Integer a, Integer b) {
+            return (int) Math.pow(a, b);
+        }
+    }
+
+    public static class QuoteParser extends CharSequenceParser {
+
+        NanoParser<Void> parser;
+
+        @Term("QUOTE")
+        public Integer quote(String body) {
+            return parser.parse(null, Integer.class, body.substring(1, body.length() - 1));
+        }
+    }
+
+    public static class ChainParser extends ReflectionActionSource<Void> {
+
+        @Term("NUM")
+        public String num(String body) {
+            return body;
+        }
+
+        @Binary("+")
+        public Double plus(@Convertible Double a, @Convertible Double b) {
+            return a + b;
+        }
+
+        @Convertion
+        public Long toLong(String text) {
+            return Long.valueOf(text);
+        }
+
+        @Convertion
+        public Double toDouble(Long val) {
+            return val.doubleValue();
+        }
+    }
+
+    public static class ListParser extends ReflectionActionSource<Void> {
+
+        @Term("NUM")
+        public Long num(String body) {
+            return Long.valueOf(body);
+        }
+
+        @Term("WORD")
+        public String word(String body) {
+            return body;
+        }
+
+        @Binary(",")
+        public Object[] join(@Convertible Object[] head, String tail) {
+            return add(head, tail);
+        }
+
+        @Binary(",")
+        public Object[] join(@Convertible Object[] head, Long tail) {
+            return add(head, tail);
+        }
+
+        private Object[] add(Object[] head, Object tail) {
+            Object[] r = Arrays.copyOf(head, head.length + 1);
+            r[head.length] = tail;
+            return r;
+        }
+
+        @Convertion
+        public Object[] wrap(Long val) {
+            return new Object[]{val};
+        }
+    }
+
+    /**
+     * Actions backed by primitive handlers.
+     */
+    public static class IntArithm extends ReflectionActionSource<Void> {
+
+        int boxedCalls;
+
+        public IntArithm() {
+            binaries.add(binaryAction(new IntOp("+")));
+            binaries.add(binaryAction(new IntOp("*")));
+        }
+
+        @Override
+        public Collection<TermAction<Void>> enumTerms() {
+            return Collections.singleton(termAction(new IntOp("NUM")));
+        }
+
+        private TermAction<Void> termAction(final IntOp op) {
+            return new TermAction<Void>() {
+
+                @Override
+                public String opId() {
+                    return op.op;
+                }
+
+                @Override
+                public Class<?> returnType() {
+                    return Integer.class;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public <R> TermActionHandler<Void, R> handler() {
+                    return (TermActionHandler<Void, R>) (Object) op;
+                }
+            };
+        }
+
+        private BinaryAction<Void> binaryAction(final IntOp op) {
+            return new BinaryAction<Void>() {
+
+                @Override
+                public String opId() {
+                    return op.op;
+                }
+
+                @Override
+                public Class<?> returnType() {
+                    return Integer.class;
+                }
+
+                @Override
+                public Class<?> leftType() {
+                    return Integer.class;
+                }
+
+                @Override
+                public Class<?> rightType() {
+                    return Integer.class;
+                }
+
+                @Override
+                public Collection<Class<?>> convertibleLeftTypes() {
+                    return Collections.<Class<?>>singleton(Integer.class);
+                }
+
+                @Override
+                public Collection<Class<?>> convertibleRightTypes() {
+                    return Collections.<Class<?>>singleton(Integer.class);
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public <R, A, B> BinaryActionHandler<Void, R, A, B> handler() {
+                    return (BinaryActionHandler<Void, R, A, B>) (Object) op;
+                }
+            };
+        }
+
+        private class IntOp implements IntTermHandler<Void>, IntBinaryHandler<Void> {
+
+            private final String op;
+
+            public IntOp(String op) {
+                this.op = op;
+            }
+
+            @Override
+            public Object implemetationReference() {
+                return this;
+            }
+
+            @Override
+            public Class<Integer> returnType() {
+                return Integer.class;
+            }
+
+            @Override
+            public Class<Integer> leftType() {
+                return Integer.class;
+            }
+
+            @Override
+            public Class<Integer> rightType() {
+                return Integer.class;
+            }
+
+            @Override
+            public Integer apply(Void parserContext, Token token) {
+                ++boxedCalls;
+                return applyInt(parserContext, token);
+            }
+
+            @Override
+            public Integer apply(Void parserContext, Token token, Integer leftArg, Integer rightArg) {
+                ++boxedCalls;
+                return applyInt(parserContext, token, leftArg, rightArg);
+            }
+
+            @Override
+            public int applyInt(Void parserContext, Token token) {
+                return Integer.parseInt(token.tokenBody());
+            }
+
+            @Override
+            public int applyInt(Void parserContext, Token token, int leftArg, int rightArg) {
+                return "+".equals(op) ? leftArg + rightArg : leftArg * rightArg;
+            }
+        }
+    }
+
+    /**
+     * Boxed overload of "+" is declared before primitive one.
+     */
+    public static class BoxedFirstIntArithm extends IntArithm {
+
+        @Binary("+")
+        public Integer boxedPlus(Integer a, Integer b) {
+            ++boxedCalls;
+            return a + b;
+        }
+    }
+
+    public static class PrimitiveParser extends ReflectionActionSource<Void> {
+
+        @Term("NUM")
+        public long num(String body) {
+            return Long.parseLong(body);
+        }
+
+        @Binary("+")
+        public long plus(long a, long b) {
+            return a + b;
+        }
+
+        @Binary("<")
+        public boolean less(long a, long b) {
+            return a < b;
+        }
+
+        @Unary("!")
+        public boolean not(boolean a) {
+            return !a;
+        }
+    }
+
     public static class SimpleParser extends ReflectionActionSource<Void> {
 
         @Binary("+")
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import org.gridkit.nanoparser.NanoParser.CacheEviction;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PlanCacheTest {
+
+    @Test
+    public void test_lru_eviction() {
+        PlanCache<String> cache = new PlanCache<String>(2, CacheEviction.LRU);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        Assert.assertEquals("A", cache.get("a"));
+        cache.put("c", "C");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertEquals("C", cache.get("c"));
+        Assert.assertEquals(3, cache.hits());
+        Assert.assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void test_lfu_eviction() {
+        PlanCache<String> cache = new PlanCache<String>(2, CacheEviction.LFU);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("b");
+        cache.get("b");
+        cache.get("a");
+        cache.put("c", "C");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals("B", cache.get("b"));
+        Assert.assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void test_parser_plan_cache() {
+        NanoParser<Void> parser = new NanoParser<Void>(MultiExpressionParserTest.SIMPLE_GRAMMAR, new MultiExpressionParserTest(null, null));
+        parser.enablePlanCache(16, CacheEviction.LRU);
+        Assert.assertTrue(parser.isPlanCacheEnabled());
+
+        for(int i = 0; i != 10; ++i) {
+            Assert.assertEquals(Integer.valueOf(7), parser.parse(null, Integer.class, "1 + 2 * 3"));
+            Assert.assertEquals(Integer.valueOf(9), parser.parse(null, Integer.class, "(1 + 2) * 3"));
+        }
+        Assert.assertEquals(2, parser.getPlanCacheMisses());
+        Assert.assertEquals(18, parser.getPlanCacheHits());
+
+        parser.disablePlanCache();
+        Assert.assertFalse(parser.isPlanCacheEnabled());
+        Assert.assertEquals(Integer.valueOf(7), parser.parse(null, Integer.class, "1 + 2 * 3"));
+        Assert.assertEquals(0, parser.getPlanCacheHits());
+    }
+
+    @Test
+    public void test_eval_hook_rejects_cache() {
+        final int[] evalCalls = {0};
+        NanoParser<Void> parser = new NanoParser<Void>(MultiExpressionParserTest.SIMPLE_GRAMMAR, new MultiExpressionParserTest(null, null)) {
+            @Override
+            protected <T> T evalNode(Void parserContext, Class<T> type, SourceReader source, ParseNode node) {
+                ++evalCalls[0];
+                return super.evalNode(parserContext, type, source, node);
+            }
+        };
+        try {
+            parser.enablePlanCache(16, CacheEviction.LRU);
+            Assert.fail("Exception expected");
+        }
+        catch(IllegalStateException e) {
+            // expected
+        }
+        Assert.assertFalse(parser.isPlanCacheEnabled());
+
+        for(int i = 0; i != 3; ++i) {
+            Assert.assertEquals(Integer.valueOf(7), parser.parse(null, Integer.class, "1 + 2 * 3"));
+        }
+        Assert.assertEquals(3, evalCalls[0]);
+        Assert.assertEquals(0, parser.getPlanCacheHits());
+    }
+}
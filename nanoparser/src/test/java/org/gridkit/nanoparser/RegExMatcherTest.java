@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RegExMatcherTest {
+
+    private static final String[] PATTERNS = {
+        "\\d+",
+        "[A-Z][A-Za-z0-9_]*",
+        "[A-Za-z]+\\(",
+        "\\s",
+        "\\S+",
+        "[^\\\\']+",
+        "\\\\.?",
+        "-?\\d+(\\.\\d*)?",
+        "(?i)abc",
+        "a*b",
+        "(ab|cd)+",
+        "\\.\\.",
+        "\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*",
+        "x?",
+        "[\\u00e0-\\u00ff]+",
+        "\\bword",
+        "(?=a)\\w+",
+    };
+
+    @Test
+    public void test_literal_prefix() {
+        Assert.assertEquals("", RegExMatcher.literalPrefix("\\d+"));
+        Assert.assertEquals("abc", RegExMatcher.literalPrefix("abc"));
+        Assert.assertEquals("ab", RegExMatcher.literalPrefix("abc?"));
+        Assert.assertEquals("ab", RegExMatcher.literalPrefix("ab+c"));
+        Assert.assertEquals("a", RegExMatcher.literalPrefix("ab*"));
+        Assert.assertEquals("a", RegExMatcher.literalPrefix("ab{2}"));
+        Assert.assertEquals("/*", RegExMatcher.literalPrefix("/\\*(?s:.*?)\\*/"));
+        Assert.assertEquals("", RegExMatcher.literalPrefix("ab|ac"));
+        Assert.assertEquals("", RegExMatcher.literalPrefix("(?i)abc"));
+        Assert.assertEquals("x", RegExMatcher.literalPrefix("x[a-z]"));
+    }
+
+    @Test
+    public void test_first_character() {
+        CharSet digits = new RegExMatcher("\\d+").firstCharacter();
+        for(char ch = '0'; ch <= '9'; ++ch) {
+            Assert.assertTrue(digits.matchChar(ch));
+        }
+        Assert.assertFalse(digits.matchChar('a'));
+        Assert.assertFalse(digits.matchChar(' '));
+        Assert.assertFalse(digits.matchChar('\n'));
+
+        CharSet ws = new RegExMatcher("\\s").firstCharacter();
+        Assert.assertTrue(ws.matchChar(' '));
+        Assert.assertFalse(ws.matchChar('a'));
+
+        CharSet ci = new RegExMatcher("(?i)abc").firstCharacter();
+        Assert.assertTrue(ci.matchChar('a'));
+        Assert.assertTrue(ci.matchChar('A'));
+        Assert.assertFalse(ci.matchChar('b'));
+    }
+
+    @Test
+    public void test_first_character_is_conservative() {
+        String alphabet = "abcdwxorAZ09_.-\\'( )\n\t\u00e9\u4e2d\u3000";
+        Random rnd = new Random(1);
+        for(String p: PATTERNS) {
+            RegExMatcher m = new RegExMatcher(p);
+            CharSet fc = m.firstCharacter();
+            for(int i = 0; i != 2000; ++i) {
+                StringBuilder sb = new StringBuilder();
+                int len = 1 + rnd.nextInt(6);
+                for(int j = 0; j != len; ++j) {
+                    sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+                }
+                String text = sb.toString();
+                int n = m.match(text, 0);
+                Matcher jm = m.pattern().matcher(text);
+                boolean jmatch = jm.lookingAt() && jm.end() > 0;
+                Assert.assertEquals(p + " on '" + text + "'", jmatch, n > 0);
+                if (n > 0) {
+                    Assert.assertTrue(p + " on '" + text + "'", fc.matchChar(text.charAt(0)));
+                }
+            }
+        }
+    }
+}
@@ -134,6 +134,29 @@ public class SimpleInterpolationParserTest {
         }
     }
 
+    @Test
+    public void verify_compiled() {
+        try {
+            CompiledExpression<Map<String, String>, String> expr = PARSER.compile(String.class, expression);
+            String val = expr.eval(PROPS);
+            if (exepectedValue != null) {
+                Assertions.assertThat(val).isEqualTo(exepectedValue);
+                // same expression, other context
+                Map<String, String> props = new HashMap<String, String>(PROPS);
+                props.put("prop.abc", "abc");
+                Assertions.assertThat(expr.eval(props)).isEqualTo(PARSER.parse(props, String.class, expression));
+            } else {
+                Assert.fail("ParseException is expected");
+            }
+        }
+        catch(ParserException e) {
+            Assert.assertEquals(errorMessage, e.getMessage());
+            if (sourceReference != null) {
+                Assert.assertEquals(sourceReference, e.getToken().excerpt());
+            }
+        }
+    }
+
     private static class InterpolationHandler extends ReflectionActionSource<Map<String, String>> {
 
         static final SyntaticScope SYNTAX = NanoGrammar.newParseTable()
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.nanoparser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SourceReaderTest {
+
+    @Test
+    public void test_line_and_pos() {
+        SourceReader reader = new SourceReader("ab\ncd\n\nef");
+        TokenMatcher word = new RegExMatcher("[a-z]+");
+        TokenMatcher nl = new RegExMatcher("\\n+");
+
+        Token ab = reader.matchToken(word);
+        Token nl1 = reader.matchToken(nl);
+        Token cd = reader.matchToken(word);
+        Token nl2 = reader.matchToken(nl);
+        Token ef = reader.matchToken(word);
+
+        // line numbers are computed lazily, out of order access should work
+        assertPos(ef, 4, 0);
+        assertPos(ab, 1, 0);
+        assertPos(cd, 2, 0);
+        assertPos(nl2, 2, 2);
+        assertPos(nl1, 1, 2);
+
+        Assert.assertTrue(reader.endOfStream());
+        Assert.assertEquals(3, reader.getLine());
+        Assert.assertEquals(2, reader.getPos());
+    }
+
+    @Test
+    public void test_multiline_token() {
+        SourceReader reader = new SourceReader("/* a\n b */x\ny");
+        Token comment = reader.matchToken(new RegExMatcher("/\\*(?s:.*?)\\*/"));
+        Token x = reader.matchToken(new StringMatcher("x"));
+
+        assertPos(comment, 1, 0);
+        assertPos(x, 2, 5);
+        Assert.assertEquals(1, reader.getLine());
+        Assert.assertEquals(6, reader.getPos());
+    }
+
+    @Test
+    public void test_skip() {
+        SourceReader reader = new SourceReader("  /* x */\n  ab");
+        TokenMatcher skip = new MultiMatcher(Tokens.whitespace()).append(Tokens.comment("/*", "*/"));
+
+        Assert.assertFalse(reader.skip(null));
+        Assert.assertTrue(reader.skip(skip));
+        Assert.assertEquals(12, reader.getOffset());
+        Assert.assertFalse(reader.skip(skip));
+        Assert.assertEquals("ab", reader.matchToken(new StringMatcher("ab")).tokenBody());
+        Assert.assertTrue(reader.endOfStream());
+        Assert.assertFalse(reader.skip(skip));
+    }
+
+    @Test
+    public void test_mapped_ascii() throws IOException {
+        assertMapped("A + B * (C + D)\n", "UTF-8");
+        assertMapped("", "UTF-8");
+    }
+
+    @Test
+    public void test_mapped_latin1() throws IOException {
+        assertMapped("caf\u00e9 + na\u00efve", "ISO-8859-1");
+    }
+
+    @Test
+    public void test_mapped_utf8() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i != 500; ++i) {
+            sb.append("x").append(i).append(" \u00e9\u4e2d\ud83d\ude00");
+        }
+        assertMapped(sb.toString(), "UTF-8");
+        assertMapped("\ud83d\ude00", "UTF-8");
+    }
+
+    @Test
+    public void test_mapped_utf8_concurrent() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i != 2000; ++i) {
+            sb.append(i).append(i % 3 == 0 ? "\u00e9" : i % 3 == 1 ? "\u4e2d" : "\ud83d\ude00");
+        }
+        final String text = sb.toString();
+        final CharSequence cs = MappedText.map(writeTemp(text, "UTF-8"), Charset.forName("UTF-8"));
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t != threads.length; ++t) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random rnd = new Random(seed);
+                    for(int n = 0; n != 200000 && failure.get() == null; ++n) {
+                        // mix of sequential and random access moves shared cursor around
+                        int i = (n & 1) == 0 ? rnd.nextInt(text.length()) : (n * 7) % text.length();
+                        if (cs.charAt(i) != text.charAt(i)) {
+                            failure.set("char at " + i);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread t: threads) {
+            t.join();
+        }
+        Assert.assertNull(failure.get());
+    }
+
+    @Test
+    public void test_mapped_parse() throws IOException {
+        File file = writeTemp("1 + 2 +\n 3", "UTF-8");
+        NanoParser<Void> parser = new NanoParser<Void>(NanoGrammar.newParseTable()
+                .term("NUM", "~\\d+")
+                .skip("~\\s")
+                .infixOp("+", "+")
+                .toScope(), new NanoParserTest.CharSequenceParser());
+
+        Assert.assertEquals(Integer.valueOf(6), parser.parse(null, Integer.class, SourceReader.mapFile(file)));
+    }
+
+    @Test
+    public void test_streaming_window() throws IOException {
+        final int count = 20000;
+        Reader reader = new Reader() {
+
+            int n = 0;
+            String pending = "";
+
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                if (pending.length() == 0) {
+                    if (n == count) {
+                        return -1;
+                    }
+                    pending = (n++) + " + 1;\n";
+                }
+                int l = Math.min(len, pending.length());
+                pending.getChars(0, l, cbuf, off);
+                pending = pending.substring(l);
+                return l;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        NanoParser<Void> parser = new NanoParser<Void>(MultiExpressionParserTest.SIMPLE_GRAMMAR, new MultiExpressionParserTest(null, null));
+        SourceReader source = new SourceReader(reader, 16);
+        for(int i = 0; i != count; ++i) {
+            Assert.assertEquals(Integer.valueOf(i + 1), parser.parseNext(null, Integer.class, source));
+            StreamText window = (StreamText) source.text();
+            Assert.assertTrue("window is not bounded", window.length() - window.start() < 64);
+        }
+        Assert.assertNull(parser.parseNext(null, Integer.class, source));
+        Assert.assertTrue(source.endOfStream());
+    }
+
+    @Test
+    public void test_streaming_tokens() {
+        SourceReader reader = new SourceReader(new StringReader("ab\ncd ef"), 1);
+        TokenMatcher word = new RegExMatcher("[a-z]+");
+        TokenMatcher ws = new RegExMatcher("\\s+");
+
+        Token ab = reader.matchToken(word);
+        reader.matchToken(ws);
+        Token cd = reader.matchToken(word);
+        reader.matchToken(ws);
+        reader.discardConsumed();
+        Token ef = reader.matchToken(word);
+
+        Assert.assertEquals("ab", ab.tokenBody());
+        Assert.assertEquals("cd", Tokens.bodySequence(cd).toString());
+        Assert.assertEquals("ef", ef.tokenBody());
+        assertPos(ab, 1, 0);
+        assertPos(cd, 2, 0);
+        assertPos(ef, 2, 3);
+        Assert.assertEquals("ef\n^\n", ef.excerpt());
+        // tokens before window keep their own copy of line
+        Assert.assertEquals("ab\n^\n", ab.excerpt());
+        Assert.assertEquals("cd ef\n^\n", cd.excerpt());
+    }
+
+    @Test
+    public void test_streaming_error() {
+        NanoParser<Void> parser = new NanoParser<Void>(MultiExpressionParserTest.SIMPLE_GRAMMAR, new MultiExpressionParserTest(null, null));
+        SourceReader source = new SourceReader(new StringReader("1 + 2;\n3 +\n 4 x;"), 4);
+        Assert.assertEquals(Integer.valueOf(3), parser.parseNext(null, Integer.class, source));
+        try {
+            parser.parseNext(null, Integer.class, source);
+            Assert.fail("Exception expected");
+        }
+        catch(ParserException e) {
+            Assert.assertEquals(3, e.getToken().line());
+            Assert.assertEquals(3, e.getToken().pos());
+            Assert.assertEquals(" 4 x;\n   ^\n", e.getToken().excerpt());
+        }
+    }
+
+    private static void assertMapped(String text, String encoding) throws IOException {
+        File file = writeTemp(text, encoding);
+        CharSequence cs = MappedText.map(file, Charset.forName(encoding));
+        Assert.assertEquals(text.length(), cs.length());
+        Assert.assertEquals(text, cs.toString());
+        // backward random access
+        for(int i = text.length() - 1; i >= 0; i -= 7) {
+            Assert.assertEquals("char at " + i, text.charAt(i), cs.charAt(i));
+        }
+        if (text.length() > 10) {
+            Assert.assertEquals(text.substring(3, 10), cs.subSequence(3, 10).toString());
+        }
+    }
+
+    private static File writeTemp(String text, String encoding) throws IOException {
+        File file = File.createTempFile("nanoparser", ".txt");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(text.getBytes(encoding));
+        }
+        finally {
+            fos.close();
+        }
+        return file;
+    }
+
+    private static void assertPos(Token token, int line, int pos) {
+        Assert.assertEquals("line of '" + token + "'", line, token.line());
+        Assert.assertEquals("pos of '" + token + "'", pos, token.pos());
+    }
+}